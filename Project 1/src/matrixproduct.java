@@ -1,6 +1,261 @@
 
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.InputStreamReader;
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.Random;
 import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.DoubleUnaryOperator;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import static java.lang.foreign.ValueLayout.ADDRESS;
+import static java.lang.foreign.ValueLayout.JAVA_DOUBLE;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+
 public class Main {
+
+    // Number of runs each algorithm is averaged over
+    private static final int RUNS = 5;
+
+    // Widest double vector shape supported by the host (e.g. 4 lanes on AVX2, 8 lanes on AVX-512)
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    // Kernels: the timed part of each algorithm, without allocation, initialization or output.
+    // They compute C (M x N) = A (M x K) * B (K x N), all row-major, and handle any M, K and N
+
+    public static void kernelMult(double[] pha, double[] phb, double[] phc, int M, int K, int N) {
+        for (int i = 0; i < M; i++) {
+            for (int j = 0; j < N; j++) {
+                double temp = 0;
+                for (int k = 0; k < K; k++) {
+                    temp += pha[i * K + k] * phb[k * N + j];
+                }
+                phc[i * N + j] = temp;
+            }
+        }
+    }
+
+    public static void kernelLine(double[] pha, double[] phb, double[] phc, int M, int K, int N) {
+        for (int i = 0; i < M; i++) {
+            for (int k = 0; k < K; k++) {
+                for (int j = 0; j < N; j++) {
+                    phc[i*N + j] += pha[i * K + k] * phb[k * N + j];
+                }
+            }
+        }
+    }
+
+    // Same loop order as kernelLine, with the j loop computed as c += a * b over SPECIES.length() lanes
+    // at a time (one FMA per vector) and a scalar loop for the remaining elements of the row
+    public static void kernelLineVector(double[] pha, double[] phb, double[] phc, int M, int K, int N) {
+        int lanes = SPECIES.length();
+        int upperBound = SPECIES.loopBound(N);
+        for (int i = 0; i < M; i++) {
+            for (int k = 0; k < K; k++) {
+                double a = pha[i * K + k];
+                DoubleVector va = DoubleVector.broadcast(SPECIES, a);
+                int j = 0;
+                for (; j < upperBound; j += lanes) {
+                    DoubleVector vb = DoubleVector.fromArray(SPECIES, phb, k * N + j);
+                    DoubleVector vc = DoubleVector.fromArray(SPECIES, phc, i * N + j);
+                    vb.fma(va, vc).intoArray(phc, i * N + j);
+                }
+                for (; j < N; j++) {
+                    phc[i * N + j] += a * phb[k * N + j];
+                }
+            }
+        }
+    }
+
+    // Edge tiles are clipped to the matrix, so the dimensions do not have to be multiples of bkSize
+    public static void kernelBlock(double[] pha, double[] phb, double[] phc, int M, int K, int N, int bkSize) {
+        int i, ii, j, jj, k, kk;
+        for(ii=0; ii<M; ii+=bkSize) {
+            int iEnd = Math.min(ii + bkSize, M);
+            for( kk=0; kk<K; kk+=bkSize){
+                int kEnd = Math.min(kk + bkSize, K);
+                for( jj=0; jj<N; jj+=bkSize) {
+                    int jEnd = Math.min(jj + bkSize, N);
+                    for (i = ii ; i < iEnd ; i++) {
+                        for (k = kk ; k < kEnd ; k++) {
+                            for (j = jj ; j < jEnd ; j++) {
+                                phc[i*N+j] += pha[i*K+k] * phb[k*N+j];
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // Naive order with B transposed once up front, so that both operands of the dot product are read with unit stride
+    public static void kernelTransposed(double[] pha, double[] phb, double[] phc, int M, int K, int N) {
+        double[] phbT = new double[K * N];
+        for (int k = 0; k < K; k++) {
+            for (int j = 0; j < N; j++) {
+                phbT[j * K + k] = phb[k * N + j];
+            }
+        }
+
+        for (int i = 0; i < M; i++) {
+            for (int j = 0; j < N; j++) {
+                double temp = 0;
+                for (int k = 0; k < K; k++) {
+                    temp += pha[i * K + k] * phbT[j * K + k];
+                }
+                phc[i * N + j] = temp;
+            }
+        }
+    }
+
+    // Sub-problems at or under this size (per dimension) fit in L1 and are multiplied directly.
+    // It is a property of the recursion, not a per-host tuning knob: every cache level above it is used as well
+    private static final int RECURSIVE_BASE = 32;
+
+    public static void kernelRecursive(double[] pha, double[] phb, double[] phc, int M, int K, int N) {
+        recursiveMultiply(pha, phb, phc, K, N, 0, 0, 0, M, K, N);
+    }
+
+    // Cache-oblivious divide and conquer on C[i0:i0+m, j0:j0+n] += A[i0:i0+m, k0:k0+k] * B[k0:k0+k, j0:j0+n]:
+    // the largest of m, k and n is halved until the sub-problem is small enough
+    private static void recursiveMultiply(double[] pha, double[] phb, double[] phc, int lda, int ldb,
+                                          int i0, int k0, int j0, int m, int k, int n) {
+        if (m <= RECURSIVE_BASE && k <= RECURSIVE_BASE && n <= RECURSIVE_BASE) {
+            for (int i = i0; i < i0 + m; i++) {
+                for (int kk = k0; kk < k0 + k; kk++) {
+                    double a = pha[i * lda + kk];
+                    for (int j = j0; j < j0 + n; j++) {
+                        phc[i * ldb + j] += a * phb[kk * ldb + j];
+                    }
+                }
+            }
+        } else if (m >= k && m >= n) {
+            recursiveMultiply(pha, phb, phc, lda, ldb, i0, k0, j0, m / 2, k, n);
+            recursiveMultiply(pha, phb, phc, lda, ldb, i0 + m / 2, k0, j0, m - m / 2, k, n);
+        } else if (n >= k) {
+            recursiveMultiply(pha, phb, phc, lda, ldb, i0, k0, j0, m, k, n / 2);
+            recursiveMultiply(pha, phb, phc, lda, ldb, i0, k0, j0 + n / 2, m, k, n - n / 2);
+        } else {
+            recursiveMultiply(pha, phb, phc, lda, ldb, i0, k0, j0, m, k / 2, n);
+            recursiveMultiply(pha, phb, phc, lda, ldb, i0, k0 + k / 2, j0, m, k - k / 2, n);
+        }
+    }
+
+    // Blocked product with independent tile sizes for the i, k and j loops, over the top-left rows x inner x cols
+    // corner of square matrices with leading dimension ld. Edge tiles are clipped, so no size has to divide ld
+    public static void kernelBlockTiled(double[] pha, double[] phb, double[] phc, int ld, int rows, int inner, int cols,
+                                        int bi, int bk, int bj) {
+        for (int ii = 0; ii < rows; ii += bi) {
+            int iEnd = Math.min(ii + bi, rows);
+            for (int kk = 0; kk < inner; kk += bk) {
+                int kEnd = Math.min(kk + bk, inner);
+                for (int jj = 0; jj < cols; jj += bj) {
+                    int jEnd = Math.min(jj + bj, cols);
+                    for (int i = ii; i < iEnd; i++) {
+                        for (int k = kk; k < kEnd; k++) {
+                            double a = pha[i * ld + k];
+                            for (int j = jj; j < jEnd; j++) {
+                                phc[i * ld + j] += a * phb[k * ld + j];
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    public static void kernelBlockParallel(double[] pha, double[] phb, double[] phc, int M, int K, int N, int bkSize, ForkJoinPool pool) {
+        pool.invoke(new BlockTask(pha, phb, phc, M, K, N, bkSize, 0, Math.ceilDiv(M, bkSize), 0, Math.ceilDiv(N, bkSize)));
+    }
+
+    // Runs the kernel of the given algorithm over already allocated matrices
+    public static void runKernel(String algorithm, double[] pha, double[] phb, double[] phc, int M, int K, int N,
+                                 int bkSize, ForkJoinPool pool) {
+        switch (algorithm) {
+            case "mult" -> kernelMult(pha, phb, phc, M, K, N);
+            case "line" -> kernelLine(pha, phb, phc, M, K, N);
+            case "line-vector" -> kernelLineVector(pha, phb, phc, M, K, N);
+            case "block" -> kernelBlock(pha, phb, phc, M, K, N, bkSize);
+            case "block-parallel" -> kernelBlockParallel(pha, phb, phc, M, K, N, bkSize, pool);
+            case "block-specialized" -> Specializer.multiply(pha, phb, phc, M, K, N, bkSize);
+            case "transposed" -> kernelTransposed(pha, phb, phc, M, K, N);
+            case "recursive" -> kernelRecursive(pha, phb, phc, M, K, N);
+            case "packed" -> kernelPacked(pha, phb, phc, M, K, N);
+            case "adaptive" -> multiplyAdaptive(pha, phb, phc, M, K, N, pool);
+            case "strassen" -> {
+                if (M != K || K != N) throw new IllegalArgumentException("strassen only multiplies square matrices");
+                kernelStrassen(pha, phb, phc, M, bkSize, STRASSEN_LEAF, pool);
+            }
+            default -> throw new IllegalArgumentException("Unknown algorithm: " + algorithm);
+        }
+    }
+
     public static double OnMult(int m_ar, int m_br) {
 
         double[] pha = new double[m_ar * m_ar];
@@ -9,25 +264,46 @@ public class Main {
 
         for (int a = 0; a < m_br; a++) {
             for (int b = 0; b < m_br; b++) {
+                pha[a * m_br + b] = 1;
                 phb[a * m_br + b] = a + 1;
             }
         }
 
         long Time1 = System.currentTimeMillis();
 
-        for (int i = 0; i < m_ar; i++) {
-            for (int j = 0; j < m_br; j++) {
-                double temp = 0;
-                for (int k = 0; k < m_ar; k++) {
-                    temp += pha[i * m_ar + k] * phb[k * m_br + j];
-                }
-                phc[i * m_ar + j] = temp;
+        kernelMult(pha, phb, phc, m_ar, m_ar, m_br);
+
+        long Time2 = System.currentTimeMillis();
+
+        double Total_time = (Time2 - Time1) / 1000.0;
+        System.out.printf("Time: %.3f seconds%n%n", Total_time);
+        System.out.println("Result Matrix: ");
+        for (int c = 0; c < Math.min(10, m_br); c++) {
+            System.out.printf("%.2f ", phc[c]);
+        }
+        return Total_time;
+    }
+
+    public static double OnMultLine(int m_ar, int m_br) {
+        double[] pha = new double[m_ar * m_ar];
+        double[] phb = new double[m_ar * m_ar];
+        double[] phc = new double[m_ar * m_ar];
+
+        for (int a = 0; a < m_br; a++) {
+            for (int b = 0; b < m_br; b++) {
+                pha[a * m_br + b] = 1;
+                phb[a * m_br + b] = a + 1;
             }
         }
 
+        long Time1 = System.currentTimeMillis();
+
+        kernelLine(pha, phb, phc, m_ar, m_ar, m_br);
+
         long Time2 = System.currentTimeMillis();
 
         double Total_time = (Time2 - Time1) / 1000.0;
+
         System.out.printf("Time: %.3f seconds%n%n", Total_time);
         System.out.println("Result Matrix: ");
         for (int c = 0; c < Math.min(10, m_br); c++) {
@@ -36,26 +312,140 @@ public class Main {
         return Total_time;
     }
 
-    public static double OnMultLine(int m_ar, int m_br) {
+    public static double OnMultLineVector(int m_ar, int m_br) {
+        double[] pha = new double[m_ar * m_ar];
+        double[] phb = new double[m_ar * m_ar];
+        double[] phc = new double[m_ar * m_ar];
+
+        initMatrices(pha, phb, m_ar);
+
+        long Time1 = System.currentTimeMillis();
+
+        kernelLineVector(pha, phb, phc, m_ar, m_ar, m_br);
+
+        long Time2 = System.currentTimeMillis();
+
+        double Total_time = (Time2 - Time1) / 1000.0;
+
+        System.out.printf("Time: %.3f seconds%n%n", Total_time);
+        System.out.println("Result Matrix: ");
+        for (int c = 0; c < Math.min(10, m_br); c++) {
+            System.out.printf("%.2f ", phc[c]);
+        }
+        return Total_time;
+    }
+
+    // Reports the vector shape the Vector API kernels will use on this host
+    public static void printSpecies() {
+        System.out.printf("Vector species: %d-bit %s, %d doubles per vector%n",
+                SPECIES.vectorBitSize(), SPECIES.vectorShape(), SPECIES.length());
+        if (SPECIES.length() < 2)
+            System.out.println("WARNING: no SIMD double vectors available, line-vector runs the scalar fallback");
+    }
+
+    public static double OnMultBlock(int m_ar, int m_br, int bkSize) {
         double[] pha = new double[m_ar * m_ar];
         double[] phb = new double[m_ar * m_ar];
         double[] phc = new double[m_ar * m_ar];
 
         for (int a = 0; a < m_br; a++) {
             for (int b = 0; b < m_br; b++) {
+                pha[a * m_br + b] = 1;
                 phb[a * m_br + b] = a + 1;
+                phc[a * m_br + b] = 0;
             }
         }
 
         long Time1 = System.currentTimeMillis();
 
-        for (int i = 0; i < m_ar; i++) {
-            for (int k = 0; k < m_br; k++) {
-                for (int j = 0; j < m_ar; j++) {
-                    phc[i*m_ar + j] += pha[i * m_ar + k] * phb[k * m_br + j];
+        kernelBlock(pha, phb, phc, m_ar, m_ar, m_br, bkSize);
+
+        long Time2 = System.currentTimeMillis();
+
+        double Total_time = (Time2 - Time1) / 1000.0;
+
+        System.out.printf("Time: %.3f seconds%n%n", Total_time);
+        System.out.println("Result Matrix: ");
+        for (int c = 0; c < Math.min(10, m_br); c++) {
+            System.out.printf("%.2f ", phc[c]);
+        }
+        return Total_time;
+    }
+
+    // Splits the ii/jj tiles of C between the workers of a ForkJoinPool.
+    // Each task owns a disjoint set of C tiles, so no synchronization is needed on phc
+    @SuppressWarnings("serial")   // Never serialized, ForkJoinTask is Serializable only by inheritance
+    private static final class BlockTask extends RecursiveAction {
+
+        private final double[] pha, phb, phc;
+        private final int M, K, N, bkSize;
+        private final int iiStart, iiEnd, jjStart, jjEnd;   // Tile ranges, in tile units
+
+        BlockTask(double[] pha, double[] phb, double[] phc, int M, int K, int N, int bkSize,
+                  int iiStart, int iiEnd, int jjStart, int jjEnd) {
+            this.pha = pha;
+            this.phb = phb;
+            this.phc = phc;
+            this.M = M;
+            this.K = K;
+            this.N = N;
+            this.bkSize = bkSize;
+            this.iiStart = iiStart;
+            this.iiEnd = iiEnd;
+            this.jjStart = jjStart;
+            this.jjEnd = jjEnd;
+        }
+
+        @Override
+        protected void compute() {
+            int iiTiles = this.iiEnd - this.iiStart;
+            int jjTiles = this.jjEnd - this.jjStart;
+
+            // A single C tile is the unit of work
+            if (iiTiles == 1 && jjTiles == 1) {
+                multiplyTile(this.iiStart * this.bkSize, this.jjStart * this.bkSize);
+                return;
+            }
+
+            // Split the longest tile range in half
+            if (iiTiles >= jjTiles) {
+                int iiMid = this.iiStart + iiTiles / 2;
+                invokeAll(new BlockTask(pha, phb, phc, M, K, N, bkSize, iiStart, iiMid, jjStart, jjEnd),
+                          new BlockTask(pha, phb, phc, M, K, N, bkSize, iiMid, iiEnd, jjStart, jjEnd));
+            } else {
+                int jjMid = this.jjStart + jjTiles / 2;
+                invokeAll(new BlockTask(pha, phb, phc, M, K, N, bkSize, iiStart, iiEnd, jjStart, jjMid),
+                          new BlockTask(pha, phb, phc, M, K, N, bkSize, iiStart, iiEnd, jjMid, jjEnd));
+            }
+        }
+
+        // Same loop nest as kernelBlock, restricted to the C tile starting at (ii, jj) and clipped at the edges
+        private void multiplyTile(int ii, int jj) {
+            int iEnd = Math.min(ii + bkSize, M);
+            int jEnd = Math.min(jj + bkSize, N);
+            for (int kk = 0; kk < K; kk += bkSize) {
+                int kEnd = Math.min(kk + bkSize, K);
+                for (int i = ii; i < iEnd; i++) {
+                    for (int k = kk; k < kEnd; k++) {
+                        for (int j = jj; j < jEnd; j++) {
+                            phc[i*N+j] += pha[i*K+k] * phb[k*N+j];
+                        }
+                    }
                 }
             }
         }
+    }
+
+    public static double OnMultBlockTiled(int m_ar, Autotuner.Tiles tiles) {
+        double[] pha = new double[m_ar * m_ar];
+        double[] phb = new double[m_ar * m_ar];
+        double[] phc = new double[m_ar * m_ar];
+
+        initMatrices(pha, phb, m_ar);
+
+        long Time1 = System.currentTimeMillis();
+
+        kernelBlockTiled(pha, phb, phc, m_ar, m_ar, m_ar, m_ar, tiles.bi(), tiles.bk(), tiles.bj());
 
         long Time2 = System.currentTimeMillis();
 
@@ -63,13 +453,13 @@ public class Main {
 
         System.out.printf("Time: %.3f seconds%n%n", Total_time);
         System.out.println("Result Matrix: ");
-        for (int c = 0; c < Math.min(10, m_br); c++) {
+        for (int c = 0; c < Math.min(10, m_ar); c++) {
             System.out.printf("%.2f ", phc[c]);
         }
         return Total_time;
     }
 
-    public static double OnMultBlock(int m_ar, int m_br, int bkSize) {
+    public static double OnMultBlockParallel(int m_ar, int m_br, int bkSize, int threads) {
         double[] pha = new double[m_ar * m_ar];
         double[] phb = new double[m_ar * m_ar];
         double[] phc = new double[m_ar * m_ar];
@@ -82,16 +472,84 @@ public class Main {
             }
         }
 
-        int i, ii, j, jj, k, kk;
+        ForkJoinPool pool = new ForkJoinPool(threads);
         long Time1 = System.currentTimeMillis();
 
-        for(ii=0; ii<m_ar; ii+=bkSize) {
-            for( kk=0; kk<m_ar; kk+=bkSize){
-                for( jj=0; jj<m_br; jj+=bkSize) {
-                    for (i = ii ; i < ii + bkSize ; i++) {
-                        for (k = kk ; k < kk + bkSize ; k++) {
-                            for (j = jj ; j < jj + bkSize ; j++) {
-                                phc[i*m_ar+j] += pha[i*m_ar+k] * phb[k*m_br+j];
+        kernelBlockParallel(pha, phb, phc, m_ar, m_ar, m_br, bkSize, pool);
+
+        long Time2 = System.currentTimeMillis();
+        pool.shutdown();
+
+        double Total_time = (Time2 - Time1) / 1000.0;
+
+        System.out.printf("Time: %.3f seconds%n%n", Total_time);
+        System.out.println("Result Matrix: ");
+        for (int c = 0; c < Math.min(10, m_br); c++) {
+            System.out.printf("%.2f ", phc[c]);
+        }
+        return Total_time;
+    }
+
+    // Runs OnMultBlockParallel with 1..maxThreads workers and compares it with the sequential OnMultBlock
+    public static void scalingReport(int dim, int bkSize, int maxThreads) {
+
+        double sequential = 0;
+        for (int i = 0; i < RUNS; i++)
+            sequential += OnMultBlock(dim, dim, bkSize);
+        sequential /= RUNS;
+        System.out.printf("AVG Time: %.3f seconds%n%n", sequential);
+
+        double[] parallel = new double[maxThreads + 1];
+        for (int threads = 1; threads <= maxThreads; threads++) {
+            for (int i = 0; i < RUNS; i++)
+                parallel[threads] += OnMultBlockParallel(dim, dim, bkSize, threads);
+            parallel[threads] /= RUNS;
+            System.out.printf("AVG Time (%d threads): %.3f seconds%n%n", threads, parallel[threads]);
+        }
+
+        // Speedup = T(sequential) / T(p) and Efficiency = Speedup / p
+        System.out.printf("Dimensions: %d, Block Size: %d, OnMultBlock: %.3f seconds%n", dim, bkSize, sequential);
+        System.out.printf("%-8s %-10s %-8s %-10s%n", "Threads", "Time (s)", "Speedup", "Efficiency");
+        for (int threads = 1; threads <= maxThreads; threads++) {
+            double speedup = sequential / parallel[threads];
+            System.out.printf("%-8d %-10.3f %-8.2f %-10.2f%n", threads, parallel[threads], speedup, speedup / threads);
+        }
+    }
+
+    // GotoBLAS-style engine: C += A * B for row-major M x K and K x N matrices.
+    // B is packed per KC x NC panel and A per MC x KC panel into contiguous slivers, so that the
+    // micro-kernel streams both operands with unit stride and keeps an MR x NR tile of C in registers
+    private static final class PackedGemm {
+
+        static final int MR = 4;                         // Rows of the register tile
+        static final int NR = 2 * SPECIES.length();      // Columns of the register tile (two vectors per row)
+        static final int KC = 256;                       // KC x NR sliver of B fits in L1 (16 KB with 4 lanes)
+        static final int MC = 128;                       // MC x KC panel of A fits in L2 (256 KB)
+        static final int NC = 4096;                      // KC x NC panel of B fits in L3 (8 MB)
+
+        // One engine per thread, reused by every call: the pack buffers take 256 KB and more
+        private static final ThreadLocal<PackedGemm> WORKSPACE = ThreadLocal.withInitial(PackedGemm::new);
+
+        private final double[] aPack = new double[MC * KC];
+        private double[] bPack = new double[0];
+        private final double[] tile = new double[MR * NR];   // Spill area for edge tiles
+
+        // The B panel only grows, up to KC x NC, when a wider matrix comes
+        void multiply(double[] pha, double[] phb, double[] phc, int m, int k, int n) {
+            int ncMax = Math.min(NC, (n + NR - 1) / NR * NR);
+            if (bPack.length < KC * ncMax) bPack = new double[KC * ncMax];
+            for (int jc = 0; jc < n; jc += NC) {
+                int nc = Math.min(NC, n - jc);
+                for (int pc = 0; pc < k; pc += KC) {
+                    int kc = Math.min(KC, k - pc);
+                    packB(phb, n, pc, jc, kc, nc);
+                    for (int ic = 0; ic < m; ic += MC) {
+                        int mc = Math.min(MC, m - ic);
+                        packA(pha, k, ic, pc, mc, kc);
+                        for (int jr = 0; jr < nc; jr += NR) {
+                            for (int ir = 0; ir < mc; ir += MR) {
+                                microKernel(kc, ir * kc, jr * kc, phc, (ic + ir) * n + jc + jr, n,
+                                        Math.min(MR, mc - ir), Math.min(NR, nc - jr));
                             }
                         }
                     }
@@ -99,6 +557,108 @@ public class Main {
             }
         }
 
+        // Each MR-row sliver of the A panel is stored column after column: aPack[(sliver * kc + p) * MR + i]
+        private void packA(double[] pha, int lda, int ic, int pc, int mc, int kc) {
+            for (int ir = 0; ir < mc; ir += MR) {
+                int mr = Math.min(MR, mc - ir);
+                int offset = ir * kc;
+                for (int p = 0; p < kc; p++) {
+                    for (int i = 0; i < MR; i++) {
+                        this.aPack[offset + p * MR + i] = i < mr ? pha[(ic + ir + i) * lda + pc + p] : 0;
+                    }
+                }
+            }
+        }
+
+        // Each NR-column sliver of the B panel is stored row after row: bPack[(sliver * kc + p) * NR + j]
+        private void packB(double[] phb, int ldb, int pc, int jc, int kc, int nc) {
+            for (int jr = 0; jr < nc; jr += NR) {
+                int nr = Math.min(NR, nc - jr);
+                int offset = jr * kc;
+                for (int p = 0; p < kc; p++) {
+                    int row = (pc + p) * ldb + jc + jr;
+                    for (int j = 0; j < NR; j++) {
+                        this.bPack[offset + p * NR + j] = j < nr ? phb[row + j] : 0;
+                    }
+                }
+            }
+        }
+
+        // MR x NR register tile, unrolled over the four rows: eight vector accumulators and one FMA per
+        // accumulator for every step of p. Slivers are zero padded, so edge tiles only differ on write-back
+        private void microKernel(int kc, int aOffset, int bOffset, double[] phc, int cOffset, int ldc, int mr, int nr) {
+            int lanes = SPECIES.length();
+            DoubleVector c00 = DoubleVector.zero(SPECIES), c01 = DoubleVector.zero(SPECIES);
+            DoubleVector c10 = DoubleVector.zero(SPECIES), c11 = DoubleVector.zero(SPECIES);
+            DoubleVector c20 = DoubleVector.zero(SPECIES), c21 = DoubleVector.zero(SPECIES);
+            DoubleVector c30 = DoubleVector.zero(SPECIES), c31 = DoubleVector.zero(SPECIES);
+
+            double[] aPack = this.aPack, bPack = this.bPack;
+            for (int p = 0; p < kc; p++) {
+                int a = aOffset + p * MR;
+                int b = bOffset + p * NR;
+                DoubleVector b0 = DoubleVector.fromArray(SPECIES, bPack, b);
+                DoubleVector b1 = DoubleVector.fromArray(SPECIES, bPack, b + lanes);
+
+                DoubleVector a0 = DoubleVector.broadcast(SPECIES, aPack[a]);
+                c00 = b0.fma(a0, c00);
+                c01 = b1.fma(a0, c01);
+                DoubleVector a1 = DoubleVector.broadcast(SPECIES, aPack[a + 1]);
+                c10 = b0.fma(a1, c10);
+                c11 = b1.fma(a1, c11);
+                DoubleVector a2 = DoubleVector.broadcast(SPECIES, aPack[a + 2]);
+                c20 = b0.fma(a2, c20);
+                c21 = b1.fma(a2, c21);
+                DoubleVector a3 = DoubleVector.broadcast(SPECIES, aPack[a + 3]);
+                c30 = b0.fma(a3, c30);
+                c31 = b1.fma(a3, c31);
+            }
+
+            if (mr == MR && nr == NR) {
+                int c0 = cOffset, c1 = cOffset + ldc, c2 = cOffset + 2 * ldc, c3 = cOffset + 3 * ldc;
+                c00.add(DoubleVector.fromArray(SPECIES, phc, c0)).intoArray(phc, c0);
+                c01.add(DoubleVector.fromArray(SPECIES, phc, c0 + lanes)).intoArray(phc, c0 + lanes);
+                c10.add(DoubleVector.fromArray(SPECIES, phc, c1)).intoArray(phc, c1);
+                c11.add(DoubleVector.fromArray(SPECIES, phc, c1 + lanes)).intoArray(phc, c1 + lanes);
+                c20.add(DoubleVector.fromArray(SPECIES, phc, c2)).intoArray(phc, c2);
+                c21.add(DoubleVector.fromArray(SPECIES, phc, c2 + lanes)).intoArray(phc, c2 + lanes);
+                c30.add(DoubleVector.fromArray(SPECIES, phc, c3)).intoArray(phc, c3);
+                c31.add(DoubleVector.fromArray(SPECIES, phc, c3 + lanes)).intoArray(phc, c3 + lanes);
+                return;
+            }
+
+            double[] tile = this.tile;
+            c00.intoArray(tile, 0);
+            c01.intoArray(tile, lanes);
+            c10.intoArray(tile, NR);
+            c11.intoArray(tile, NR + lanes);
+            c20.intoArray(tile, 2 * NR);
+            c21.intoArray(tile, 2 * NR + lanes);
+            c30.intoArray(tile, 3 * NR);
+            c31.intoArray(tile, 3 * NR + lanes);
+            for (int i = 0; i < mr; i++) {
+                for (int j = 0; j < nr; j++) {
+                    phc[cOffset + i * ldc + j] += tile[i * NR + j];
+                }
+            }
+        }
+    }
+
+    public static void kernelPacked(double[] pha, double[] phb, double[] phc, int M, int K, int N) {
+        PackedGemm.WORKSPACE.get().multiply(pha, phb, phc, M, K, N);
+    }
+
+    public static double OnMultTransposed(int m_ar, int m_br) {
+        double[] pha = new double[m_ar * m_ar];
+        double[] phb = new double[m_ar * m_ar];
+        double[] phc = new double[m_ar * m_ar];
+
+        initMatrices(pha, phb, m_ar);
+
+        long Time1 = System.currentTimeMillis();
+
+        kernelTransposed(pha, phb, phc, m_ar, m_ar, m_br);
+
         long Time2 = System.currentTimeMillis();
 
         double Total_time = (Time2 - Time1) / 1000.0;
@@ -110,31 +670,3793 @@ public class Main {
         }
         return Total_time;
     }
-    public static void main(String[] args) {
-        
-        if (args.length != 2) return;
-        
-        int dim = Integer.parseInt(args[0]);
-        int bkSize = Integer.parseInt(args[1]);
 
-        double total_time = 0;
+    public static double OnMultRecursive(int m_ar, int m_br) {
+        double[] pha = new double[m_ar * m_ar];
+        double[] phb = new double[m_ar * m_ar];
+        double[] phc = new double[m_ar * m_ar];
 
-        for(int i = 0; i < 5; i++)
-            total_time += OnMult(dim, dim);
-        total_time /= 5;
-        System.out.printf("AVG Time: %.3f seconds%n%n", total_time);
+        initMatrices(pha, phb, m_ar);
 
-        total_time = 0;
-        for(int i = 0; i < 5; i++)
-            total_time += OnMultLine(dim, dim);
-        total_time /= 5;
-        System.out.printf("AVG Time: %.3f seconds%n%n", total_time);
+        long Time1 = System.currentTimeMillis();
 
-        total_time = 0;
+        kernelRecursive(pha, phb, phc, m_ar, m_ar, m_br);
 
-        for(int i = 0; i < 5; i++)
-            total_time += OnMultBlock(dim, dim, bkSize);
-        total_time /= 5;
-        System.out.printf("AVG Time: %.3f seconds%n%n", total_time);
+        long Time2 = System.currentTimeMillis();
+
+        double Total_time = (Time2 - Time1) / 1000.0;
+
+        System.out.printf("Time: %.3f seconds%n%n", Total_time);
+        System.out.println("Result Matrix: ");
+        for (int c = 0; c < Math.min(10, m_br); c++) {
+            System.out.printf("%.2f ", phc[c]);
+        }
+        return Total_time;
+    }
+
+    public static double OnMultPacked(int m_ar, int m_br) {
+        double[] pha = new double[m_ar * m_ar];
+        double[] phb = new double[m_ar * m_ar];
+        double[] phc = new double[m_ar * m_ar];
+
+        initMatrices(pha, phb, m_ar);
+
+        long Time1 = System.currentTimeMillis();
+
+        kernelPacked(pha, phb, phc, m_ar, m_ar, m_br);
+
+        long Time2 = System.currentTimeMillis();
+
+        double Total_time = (Time2 - Time1) / 1000.0;
+
+        System.out.printf("Time: %.3f seconds%n%n", Total_time);
+        System.out.println("Result Matrix: ");
+        for (int c = 0; c < Math.min(10, m_br); c++) {
+            System.out.printf("%.2f ", phc[c]);
+        }
+        return Total_time;
+    }
+
+    // Row-major matrix stored outside the Java heap, indexed with long arithmetic so that
+    // rows * cols is not limited to Integer.MAX_VALUE. The memory is released by close()
+    private static final class OffHeapMatrix implements AutoCloseable {
+
+        static final long ALIGNMENT = 64;   // Cache line
+
+        final long rows;
+        final long cols;
+        final long size;                    // rows * cols, checked for overflow
+        final MemorySegment segment;
+        private final Arena arena;
+
+        OffHeapMatrix(long rows, long cols) {
+            if (rows < 0 || cols < 0) throw new IllegalArgumentException("Negative matrix size: " + rows + "x" + cols);
+            this.rows = rows;
+            this.cols = cols;
+            this.size = Math.multiplyExact(rows, cols);
+            this.arena = Arena.ofShared();
+            this.segment = this.arena.allocate(Math.multiplyExact(this.size, (long) Double.BYTES), ALIGNMENT);
+        }
+
+        double get(long i, long j) {
+            return this.segment.getAtIndex(JAVA_DOUBLE, i * this.cols + j);
+        }
+
+        void set(long i, long j, double value) {
+            this.segment.setAtIndex(JAVA_DOUBLE, i * this.cols + j, value);
+        }
+
+        void fill(double value) {
+            if (value == 0) {
+                this.segment.fill((byte) 0);
+                return;
+            }
+            for (long index = 0; index < this.size; index++) {
+                this.segment.setAtIndex(JAVA_DOUBLE, index, value);
+            }
+        }
+
+        @Override
+        public void close() {
+            this.arena.close();
+        }
+    }
+
+    // Off-heap versions of the three kernels, same loop nests as kernelMult, kernelLine and kernelBlock
+
+    public static void kernelMultOffHeap(MemorySegment pha, MemorySegment phb, MemorySegment phc, long M, long K, long N) {
+        for (long i = 0; i < M; i++) {
+            for (long j = 0; j < N; j++) {
+                double temp = 0;
+                for (long k = 0; k < K; k++) {
+                    temp += pha.getAtIndex(JAVA_DOUBLE, i * K + k) * phb.getAtIndex(JAVA_DOUBLE, k * N + j);
+                }
+                phc.setAtIndex(JAVA_DOUBLE, i * N + j, temp);
+            }
+        }
+    }
+
+    public static void kernelLineOffHeap(MemorySegment pha, MemorySegment phb, MemorySegment phc, long M, long K, long N) {
+        for (long i = 0; i < M; i++) {
+            for (long k = 0; k < K; k++) {
+                double a = pha.getAtIndex(JAVA_DOUBLE, i * K + k);
+                for (long j = 0; j < N; j++) {
+                    long c = i * N + j;
+                    phc.setAtIndex(JAVA_DOUBLE, c, phc.getAtIndex(JAVA_DOUBLE, c) + a * phb.getAtIndex(JAVA_DOUBLE, k * N + j));
+                }
+            }
+        }
+    }
+
+    public static void kernelBlockOffHeap(MemorySegment pha, MemorySegment phb, MemorySegment phc, long M, long K, long N, int bkSize) {
+        for (long ii = 0; ii < M; ii += bkSize) {
+            long iEnd = Math.min(ii + bkSize, M);
+            for (long kk = 0; kk < K; kk += bkSize) {
+                long kEnd = Math.min(kk + bkSize, K);
+                for (long jj = 0; jj < N; jj += bkSize) {
+                    long jEnd = Math.min(jj + bkSize, N);
+                    for (long i = ii; i < iEnd; i++) {
+                        for (long k = kk; k < kEnd; k++) {
+                            double a = pha.getAtIndex(JAVA_DOUBLE, i * K + k);
+                            for (long j = jj; j < jEnd; j++) {
+                                long c = i * N + j;
+                                phc.setAtIndex(JAVA_DOUBLE, c, phc.getAtIndex(JAVA_DOUBLE, c) + a * phb.getAtIndex(JAVA_DOUBLE, k * N + j));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // Runs mult, line or block with A, B and C allocated off-heap, released as soon as the run ends
+    public static double OnMultOffHeap(long m_ar, long m_br, String algorithm, int bkSize) {
+        try (OffHeapMatrix pha = new OffHeapMatrix(m_ar, m_ar);
+             OffHeapMatrix phb = new OffHeapMatrix(m_ar, m_ar);
+             OffHeapMatrix phc = new OffHeapMatrix(m_ar, m_ar)) {
+
+            pha.fill(1);
+            for (long a = 0; a < m_br; a++) {
+                for (long b = 0; b < m_br; b++) {
+                    phb.set(a, b, a + 1);
+                }
+            }
+            phc.fill(0);
+
+            long Time1 = System.currentTimeMillis();
+
+            switch (algorithm) {
+                case "mult" -> kernelMultOffHeap(pha.segment, phb.segment, phc.segment, m_ar, m_ar, m_br);
+                case "line" -> kernelLineOffHeap(pha.segment, phb.segment, phc.segment, m_ar, m_ar, m_br);
+                case "block" -> kernelBlockOffHeap(pha.segment, phb.segment, phc.segment, m_ar, m_ar, m_br, bkSize);
+                default -> throw new IllegalArgumentException("Unknown off-heap algorithm: " + algorithm);
+            }
+
+            long Time2 = System.currentTimeMillis();
+
+            double Total_time = (Time2 - Time1) / 1000.0;
+
+            System.out.printf("Time: %.3f seconds%n%n", Total_time);
+            System.out.println("Result Matrix: ");
+            for (long c = 0; c < Math.min(10, m_br); c++) {
+                System.out.printf("%.2f ", phc.get(0, c));
+            }
+            return Total_time;
+        }
+    }
+
+    // Binary tiled matrix file (.cpdm), read and written through FileChannel.map.
+    // Header (64 bytes, big endian): magic "CPDM", version, rows, cols and tile size.
+    // Then every tile, tile row after tile row, each one tile x tile doubles in row-major order.
+    // Edge tiles are zero padded, so every tile has the same size and can be mapped on its own
+    private static final class TiledMatrixFile implements AutoCloseable {
+
+        static final int MAGIC = 0x4350444D;
+        static final int VERSION = 1;
+        static final long HEADER_BYTES = 64;
+
+        // Value of the element (i, j), used to fill a new file
+        interface Generator {
+            double value(long i, long j);
+        }
+
+        final Path path;
+        final long rows;
+        final long cols;
+        final int tile;
+        final long tileRows;
+        final long tileCols;
+        private final FileChannel channel;
+
+        private TiledMatrixFile(Path path, FileChannel channel, long rows, long cols, int tile) {
+            this.path = path;
+            this.channel = channel;
+            this.rows = rows;
+            this.cols = cols;
+            this.tile = tile;
+            this.tileRows = (rows + tile - 1) / tile;
+            this.tileCols = (cols + tile - 1) / tile;
+        }
+
+        // Creates (or truncates) the file with room for every tile. The file is sparse until tiles are written
+        static TiledMatrixFile create(Path path, long rows, long cols, int tile) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            TiledMatrixFile file = new TiledMatrixFile(path, channel, rows, cols, tile);
+
+            ByteBuffer header = ByteBuffer.allocate((int) HEADER_BYTES);
+            header.putInt(MAGIC).putInt(VERSION).putLong(rows).putLong(cols).putInt(tile).flip();
+            while (header.hasRemaining()) channel.write(header, header.position());
+            channel.write(ByteBuffer.allocate(1), file.tileOffset(file.tileRows, 0) - 1);
+            return file;
+        }
+
+        static TiledMatrixFile open(Path path) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            ByteBuffer header = ByteBuffer.allocate((int) HEADER_BYTES);
+            while (header.hasRemaining() && channel.read(header, header.position()) > 0);
+            header.flip();
+            if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC || header.getInt() != VERSION) {
+                channel.close();
+                throw new IOException("Not a tiled matrix file: " + path);
+            }
+            return new TiledMatrixFile(path, channel, header.getLong(), header.getLong(), header.getInt());
+        }
+
+        long tileBytes() {
+            return (long) this.tile * this.tile * Double.BYTES;
+        }
+
+        long tileOffset(long ti, long tj) {
+            return HEADER_BYTES + (ti * this.tileCols + tj) * this.tileBytes();
+        }
+
+        // Maps one tile. The mapping lives until the arena is closed
+        MemorySegment map(long ti, long tj, Arena arena, boolean writable) throws IOException {
+            return this.channel.map(writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY,
+                    this.tileOffset(ti, tj), this.tileBytes(), arena);
+        }
+
+        // Writes every element, one mapped tile at a time
+        void fill(Generator generator) throws IOException {
+            for (long ti = 0; ti < this.tileRows; ti++) {
+                for (long tj = 0; tj < this.tileCols; tj++) {
+                    try (Arena arena = Arena.ofConfined()) {
+                        MemorySegment segment = this.map(ti, tj, arena, true);
+                        for (long i = 0; i < this.tile; i++) {
+                            for (long j = 0; j < this.tile; j++) {
+                                long row = ti * this.tile + i, col = tj * this.tile + j;
+                                double value = row < this.rows && col < this.cols ? generator.value(row, col) : 0;
+                                segment.setAtIndex(JAVA_DOUBLE, i * this.tile + j, value);
+                            }
+                        }
+                        segment.force();
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.channel.close();
+        }
+    }
+
+    // LRU cache of read-only mapped tiles. At most budget / tile bytes tiles are mapped at once,
+    // the least recently used one is unmapped (its arena closed) to make room for a new one
+    private static final class TileCache implements AutoCloseable {
+
+        private record Key(TiledMatrixFile file, long ti, long tj) {}
+        private record Entry(Arena arena, MemorySegment segment) {}
+
+        private final LinkedHashMap<Key, Entry> tiles = new LinkedHashMap<>(16, 0.75f, true);
+        private final long capacity;
+        long hits;
+        long misses;
+
+        // Two tiles at least: the A and the B tile being multiplied
+        TileCache(long budgetBytes, long tileBytes) {
+            this.capacity = Math.max(2, budgetBytes / tileBytes);
+        }
+
+        long capacity() {
+            return this.capacity;
+        }
+
+        MemorySegment get(TiledMatrixFile file, long ti, long tj) throws IOException {
+            Key key = new Key(file, ti, tj);
+            Entry entry = this.tiles.get(key);
+            if (entry != null) {
+                this.hits++;
+                return entry.segment();
+            }
+
+            this.misses++;
+            if (this.tiles.size() >= this.capacity) {
+                Iterator<Entry> eldest = this.tiles.values().iterator();
+                eldest.next().arena().close();
+                eldest.remove();
+            }
+            Arena arena = Arena.ofConfined();
+            entry = new Entry(arena, file.map(ti, tj, arena, false));
+            this.tiles.put(key, entry);
+            return entry.segment();
+        }
+
+        @Override
+        public void close() {
+            this.tiles.values().forEach(entry -> entry.arena().close());
+            this.tiles.clear();
+        }
+    }
+
+    // Out-of-core C = A * B: each C tile is mapped on its own, accumulated from the A and B tiles
+    // streamed through the cache, flushed to disk and unmapped before moving to the next one
+    public static void multiplyOutOfCore(TiledMatrixFile a, TiledMatrixFile b, TiledMatrixFile c, TileCache cache) throws IOException {
+        if (a.cols != b.rows || c.rows != a.rows || c.cols != b.cols)
+            throw new IllegalArgumentException("Incompatible dimensions");
+        if (a.tile != b.tile || a.tile != c.tile)
+            throw new IllegalArgumentException("All matrices must have the same tile size");
+
+        long t = a.tile;
+        for (long ti = 0; ti < c.tileRows; ti++) {
+            for (long tj = 0; tj < c.tileCols; tj++) {
+                try (Arena arena = Arena.ofConfined()) {
+                    MemorySegment phc = c.map(ti, tj, arena, true);
+                    phc.fill((byte) 0);
+                    for (long tk = 0; tk < a.tileCols; tk++) {
+                        MemorySegment pha = cache.get(a, ti, tk);
+                        MemorySegment phb = cache.get(b, tk, tj);
+                        for (long i = 0; i < t; i++) {
+                            for (long k = 0; k < t; k++) {
+                                double value = pha.getAtIndex(JAVA_DOUBLE, i * t + k);
+                                for (long j = 0; j < t; j++) {
+                                    long index = i * t + j;
+                                    phc.setAtIndex(JAVA_DOUBLE, index, phc.getAtIndex(JAVA_DOUBLE, index) + value * phb.getAtIndex(JAVA_DOUBLE, k * t + j));
+                                }
+                            }
+                        }
+                    }
+                    phc.force();
+                }
+            }
+        }
+    }
+
+    // Reuses A.cpdm and B.cpdm from the directory when their shape matches, otherwise writes them
+    // with the same values as OnMultBlock. C.cpdm is always rewritten
+    public static double OnMultOutOfCore(long m_ar, int tile, long cacheBytes, Path directory) throws IOException {
+        Files.createDirectories(directory);
+        try (TiledMatrixFile pha = openOrCreate(directory.resolve("A.cpdm"), m_ar, tile, (i, j) -> 1);
+             TiledMatrixFile phb = openOrCreate(directory.resolve("B.cpdm"), m_ar, tile, (i, j) -> i + 1);
+             TiledMatrixFile phc = TiledMatrixFile.create(directory.resolve("C.cpdm"), m_ar, m_ar, tile);
+             TileCache cache = new TileCache(cacheBytes, pha.tileBytes())) {
+
+            long Time1 = System.currentTimeMillis();
+
+            multiplyOutOfCore(pha, phb, phc, cache);
+
+            long Time2 = System.currentTimeMillis();
+
+            double Total_time = (Time2 - Time1) / 1000.0;
+
+            System.out.printf("Time: %.3f seconds%n", Total_time);
+            System.out.printf("Tile cache: %d tiles of %d KB, %d hits, %d misses%n%n",
+                    cache.capacity(), pha.tileBytes() / 1024, cache.hits, cache.misses);
+            System.out.println("Result Matrix: ");
+            try (Arena arena = Arena.ofConfined()) {
+                MemorySegment first = phc.map(0, 0, arena, false);
+                for (long c = 0; c < Math.min(10, Math.min(m_ar, tile)); c++) {
+                    System.out.printf("%.2f ", first.getAtIndex(JAVA_DOUBLE, c));
+                }
+            }
+            return Total_time;
+        }
+    }
+
+    private static TiledMatrixFile openOrCreate(Path path, long dim, int tile, TiledMatrixFile.Generator generator) throws IOException {
+        if (Files.exists(path)) {
+            TiledMatrixFile file = TiledMatrixFile.open(path);
+            if (file.rows == dim && file.cols == dim && file.tile == tile) return file;
+            file.close();
+        }
+        TiledMatrixFile file = TiledMatrixFile.create(path, dim, dim, tile);
+        file.fill(generator);
+        return file;
+    }
+
+    // Strassen-Winograd recursion: 7 half-size products and 15 additions per level instead of 8 products.
+    // The 7 products of each level are forked as tasks, and below the cutoff they fall back to kernelBlock
+    @SuppressWarnings("serial")   // Never serialized, ForkJoinTask is Serializable only by inheritance
+    private static final class StrassenTask extends RecursiveTask<double[]> {
+
+        private final double[] pha, phb;
+        private final int n, bkSize, depth;   // Levels of recursion left before the blocked kernel
+
+        StrassenTask(double[] pha, double[] phb, int n, int bkSize, int depth) {
+            this.pha = pha;
+            this.phb = phb;
+            this.n = n;
+            this.bkSize = bkSize;
+            this.depth = depth;
+        }
+
+        @Override
+        protected double[] compute() {
+            if (this.depth == 0) {
+                double[] phc = new double[n * n];
+                kernelBlock(pha, phb, phc, n, n, n, bkSize);
+                return phc;
+            }
+
+            int h = n / 2;
+            double[] a11 = quadrant(pha, n, 0, 0), a12 = quadrant(pha, n, 0, h);
+            double[] a21 = quadrant(pha, n, h, 0), a22 = quadrant(pha, n, h, h);
+            double[] b11 = quadrant(phb, n, 0, 0), b12 = quadrant(phb, n, 0, h);
+            double[] b21 = quadrant(phb, n, h, 0), b22 = quadrant(phb, n, h, h);
+
+            double[] s1 = add(a21, a22), s2 = sub(s1, a11), s3 = sub(a11, a21), s4 = sub(a12, s2);
+            double[] t1 = sub(b12, b11), t2 = sub(b22, t1), t3 = sub(b22, b12), t4 = sub(t2, b21);
+
+            StrassenTask p1 = new StrassenTask(a11, b11, h, bkSize, depth - 1);
+            StrassenTask p2 = new StrassenTask(a12, b21, h, bkSize, depth - 1);
+            StrassenTask p3 = new StrassenTask(s4, b22, h, bkSize, depth - 1);
+            StrassenTask p4 = new StrassenTask(a22, t4, h, bkSize, depth - 1);
+            StrassenTask p5 = new StrassenTask(s1, t1, h, bkSize, depth - 1);
+            StrassenTask p6 = new StrassenTask(s2, t2, h, bkSize, depth - 1);
+            StrassenTask p7 = new StrassenTask(s3, t3, h, bkSize, depth - 1);
+            invokeAll(p1, p2, p3, p4, p5, p6, p7);
+
+            double[] u2 = add(p1.join(), p6.join());
+            double[] u3 = add(u2, p7.join());
+            double[] u4 = add(u2, p5.join());
+
+            double[] phc = new double[n * n];
+            setQuadrant(phc, n, 0, 0, add(p1.join(), p2.join()));   // C11 = P1 + P2
+            setQuadrant(phc, n, 0, h, add(u4, p3.join()));          // C12 = P1 + P6 + P5 + P3
+            setQuadrant(phc, n, h, 0, sub(u3, p4.join()));          // C21 = P1 + P6 + P7 - P4
+            setQuadrant(phc, n, h, h, add(u3, p5.join()));          // C22 = P1 + P6 + P7 + P5
+            return phc;
+        }
+
+        private static double[] quadrant(double[] m, int n, int row, int col) {
+            int h = n / 2;
+            double[] q = new double[h * h];
+            for (int i = 0; i < h; i++)
+                System.arraycopy(m, (row + i) * n + col, q, i * h, h);
+            return q;
+        }
+
+        private static void setQuadrant(double[] m, int n, int row, int col, double[] q) {
+            int h = n / 2;
+            for (int i = 0; i < h; i++)
+                System.arraycopy(q, i * h, m, (row + i) * n + col, h);
+        }
+
+        private static double[] add(double[] x, double[] y) {
+            double[] r = new double[x.length];
+            for (int i = 0; i < r.length; i++) r[i] = x[i] + y[i];
+            return r;
+        }
+
+        private static double[] sub(double[] x, double[] y) {
+            double[] r = new double[x.length];
+            for (int i = 0; i < r.length; i++) r[i] = x[i] - y[i];
+            return r;
+        }
+    }
+
+    // Default size under which the Strassen recursion hands over to kernelBlock
+    private static final int STRASSEN_LEAF = 512;
+
+    // The recursion needs the dimension to be halved evenly down to a leaf that is a multiple of bkSize,
+    // so the operands are zero padded to leafSize * 2^depth when the dimension does not allow it
+    public static void kernelStrassen(double[] pha, double[] phb, double[] phc, int dim, int bkSize, int leaf, ForkJoinPool pool) {
+        int depth = 0;
+        while (Math.ceilDiv(dim, 1 << depth) > leaf) depth++;
+        int leafSize = Math.ceilDiv(Math.ceilDiv(dim, 1 << depth), bkSize) * bkSize;
+        int padded = leafSize << depth;
+
+        double[] a = pha, b = phb;
+        if (padded != dim) {
+            a = new double[padded * padded];
+            b = new double[padded * padded];
+            for (int i = 0; i < dim; i++) {
+                System.arraycopy(pha, i * dim, a, i * padded, dim);
+                System.arraycopy(phb, i * dim, b, i * padded, dim);
+            }
+        }
+
+        double[] c = pool.invoke(new StrassenTask(a, b, padded, bkSize, depth));
+        for (int i = 0; i < dim; i++)
+            System.arraycopy(c, i * padded, phc, i * dim, dim);
+    }
+
+    public static double OnMultStrassen(int m_ar, int bkSize, int leaf, int threads) {
+        double[] pha = new double[m_ar * m_ar];
+        double[] phb = new double[m_ar * m_ar];
+        double[] phc = new double[m_ar * m_ar];
+
+        initMatrices(pha, phb, m_ar);
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        long Time1 = System.currentTimeMillis();
+
+        kernelStrassen(pha, phb, phc, m_ar, bkSize, leaf, pool);
+
+        long Time2 = System.currentTimeMillis();
+        pool.shutdown();
+
+        double Total_time = (Time2 - Time1) / 1000.0;
+
+        System.out.printf("Time: %.3f seconds%n%n", Total_time);
+        System.out.println("Result Matrix: ");
+        for (int c = 0; c < Math.min(10, m_ar); c++) {
+            System.out.printf("%.2f ", phc[c]);
+        }
+        return Total_time;
+    }
+
+    // Compares Strassen with the classic O(n^3) product (kernelPacked, which handles any dimension) for random
+    // matrices, whose error would otherwise be hidden by the exactly representable integers of initMatrices
+    public static void strassenAccuracy(int dim, int bkSize, int leaf, ForkJoinPool pool) {
+        Random random = new Random(42);
+        double[] pha = new double[dim * dim];
+        double[] phb = new double[dim * dim];
+        for (int i = 0; i < dim * dim; i++) {
+            pha[i] = random.nextDouble() * 2 - 1;
+            phb[i] = random.nextDouble() * 2 - 1;
+        }
+
+        double[] classic = new double[dim * dim];
+        double[] strassen = new double[dim * dim];
+        kernelPacked(pha, phb, classic, dim, dim, dim);
+        kernelStrassen(pha, phb, strassen, dim, bkSize, leaf, pool);
+
+        double maxError = 0, errorNorm = 0, norm = 0;
+        for (int i = 0; i < dim * dim; i++) {
+            double error = Math.abs(strassen[i] - classic[i]);
+            maxError = Math.max(maxError, error);
+            errorNorm += error * error;
+            norm += classic[i] * classic[i];
+        }
+        System.out.printf("Accuracy (random inputs, dimension %d, leaf %d): max abs error %.3e, relative Frobenius error %.3e%n",
+                dim, leaf, maxError, Math.sqrt(errorNorm / norm));
+    }
+
+    // Times Strassen against the parallel blocked kernel for leaf * 2^j dimensions up to maxDim.
+    // The crossover is the first dimension from which Strassen stays faster
+    public static void strassenCrossover(int maxDim, int bkSize, int leaf, int threads) {
+        if (leaf % bkSize != 0) {
+            System.out.println("The leaf size must be a multiple of the block size");
+            return;
+        }
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        System.out.printf("%-10s %-12s %-12s %-8s%n", "Dimension", "Block (s)", "Strassen (s)", "Speedup");
+
+        int crossover = -1;
+        for (int dim = leaf; dim <= maxDim; dim *= 2) {
+            double[] pha = new double[dim * dim];
+            double[] phb = new double[dim * dim];
+            double[] phc = new double[dim * dim];
+            initMatrices(pha, phb, dim);
+
+            // One untimed run of each kernel to warm up the JIT
+            kernelBlockParallel(pha, phb, phc, dim, dim, dim, bkSize, pool);
+            kernelStrassen(pha, phb, phc, dim, bkSize, leaf, pool);
+
+            Arrays.fill(phc, 0);
+            long Time1 = System.nanoTime();
+            kernelBlockParallel(pha, phb, phc, dim, dim, dim, bkSize, pool);
+            long Time2 = System.nanoTime();
+            kernelStrassen(pha, phb, phc, dim, bkSize, leaf, pool);
+            long Time3 = System.nanoTime();
+
+            double block = (Time2 - Time1) / 1e9, strassen = (Time3 - Time2) / 1e9;
+            if (strassen < block && crossover < 0) crossover = dim;
+            if (strassen >= block) crossover = -1;
+            System.out.printf("%-10d %-12.3f %-12.3f %-8.2f%n", dim, block, strassen, block / strassen);
+        }
+        pool.shutdown();
+
+        if (crossover > 0)
+            System.out.printf("Crossover dimension: %d (leaf %d, block size %d, %d threads)%n", crossover, leaf, bkSize, threads);
+        else
+            System.out.printf("No crossover up to dimension %d (leaf %d, block size %d, %d threads)%n", maxDim, leaf, bkSize, threads);
+    }
+
+    // Block size autotuner. Candidate tiles are filtered with the cache sizes of the host, timed (after a warmup run)
+    // on a row panel of the real dimension, and the best one is kept in a profile file per (host, dimension)
+    static final class Autotuner {
+
+        static final String PROFILE = "autotune.properties";
+        static final int[] SIZES = {16, 32, 64, 128, 256, 512};
+
+        // bi x bk x bj tiles for kernelBlockTiled, plus the best square block size for the single-size kernels
+        record Tiles(int bi, int bk, int bj, int square) {
+
+            @Override
+            public String toString() {
+                return bi + "x" + bk + "x" + bj;
+            }
+        }
+
+        // Data/unified cache sizes in bytes, by level, from /sys/devices/system/cpu/cpu0/cache
+        static Map<Integer, Long> cacheSizes() {
+            Map<Integer, Long> caches = new HashMap<>();
+            Path root = Path.of("/sys/devices/system/cpu/cpu0/cache");
+            for (int index = 0; Files.exists(root.resolve("index" + index)); index++) {
+                try {
+                    Path cache = root.resolve("index" + index);
+                    if (Files.readString(cache.resolve("type")).trim().equals("Instruction")) continue;
+                    int level = Integer.parseInt(Files.readString(cache.resolve("level")).trim());
+                    String size = Files.readString(cache.resolve("size")).trim();
+                    long bytes = Long.parseLong(size.replaceAll("[^0-9]", ""));
+                    if (size.endsWith("K")) bytes *= 1024;
+                    else if (size.endsWith("M")) bytes *= 1024 * 1024;
+                    caches.put(level, bytes);
+                } catch (IOException | NumberFormatException exception) {
+                    System.out.println("Could not read cache index" + index + ": " + exception.getMessage());
+                }
+            }
+            return caches;
+        }
+
+        static String host() {
+            try {
+                return InetAddress.getLocalHost().getHostName();
+            } catch (IOException exception) {
+                return System.getenv().getOrDefault("HOSTNAME", "localhost");
+            }
+        }
+
+        // Tiles from the profile, tuned (and saved) on the first run for this host and dimension
+        static Tiles tilesFor(int dim) throws IOException {
+            Properties profile = load();
+            String value = profile.getProperty(host() + "." + dim);
+            if (value != null) {
+                int[] sizes = Arrays.stream(value.split(",")).mapToInt(Integer::parseInt).toArray();
+                Tiles tiles = new Tiles(sizes[0], sizes[1], sizes[2], sizes[3]);
+                System.out.printf("Autotuned tiles for dimension %d: %s (square %d), from %s%n", dim, tiles, tiles.square(), PROFILE);
+                return tiles;
+            }
+            return tune(dim);
+        }
+
+        static Tiles tune(int dim) throws IOException {
+            Map<Integer, Long> caches = cacheSizes();
+            long l2 = caches.getOrDefault(2, 256L * 1024);
+            long last = caches.getOrDefault(caches.keySet().stream().max(Integer::compare).orElse(2), l2);
+            caches.forEach((level, bytes) -> System.out.printf("L%d cache: %d KB%n", level, bytes / 1024));
+
+            // Probe: C[0:rows, 0:cols] += A[0:rows, 0:inner] * B[0:inner, 0:cols] with the strides of the full matrix
+            int rows = Math.min(dim, SIZES[SIZES.length - 1]);
+            int inner = Math.min(dim, 1024);
+            int cols = Math.min(dim, 1024);
+            double[] pha = new double[rows * dim];
+            double[] phb = new double[inner * dim];
+            double[] phc = new double[rows * dim];
+            Arrays.fill(pha, 1);
+            for (int a = 0; a < inner; a++)
+                Arrays.fill(phb, a * dim, (a + 1) * dim, a + 1);
+
+            Map<String, Double> timings = new HashMap<>();
+            Tiles best = null;
+            double bestTime = Double.MAX_VALUE;
+
+            // Square tiles first, as test.sh used to do
+            for (int size : SIZES) {
+                Tiles tiles = new Tiles(size, size, size, size);
+                if (!fits(tiles, l2, last)) continue;
+                double time = probe(tiles, pha, phb, phc, dim, rows, inner, cols, timings);
+                if (time < bestTime) {
+                    best = tiles;
+                    bestTime = time;
+                }
+            }
+            if (best == null) throw new IllegalStateException("No tile fits in the caches of this host");
+            int square = best.square();
+
+            // Then halve or double one tile dimension at a time while it keeps getting at least 2% faster
+            boolean improved = true;
+            while (improved) {
+                improved = false;
+                for (Tiles tiles : neighbours(best, square)) {
+                    if (!fits(tiles, l2, last) || timings.containsKey(tiles.toString())) continue;
+                    double time = probe(tiles, pha, phb, phc, dim, rows, inner, cols, timings);
+                    if (time < bestTime * 0.98) {
+                        best = tiles;
+                        bestTime = time;
+                        improved = true;
+                    }
+                }
+            }
+
+            System.out.printf("Best tiles for dimension %d: %s (square %d)%n", dim, best, square);
+            save(dim, best);
+            return best;
+        }
+
+        // A B tile must fit in L2 and the three tiles together in the last level cache
+        private static boolean fits(Tiles tiles, long l2, long last) {
+            long b = (long) tiles.bk() * tiles.bj() * Double.BYTES;
+            long total = ((long) tiles.bi() * tiles.bk() + (long) tiles.bi() * tiles.bj()) * Double.BYTES + b;
+            return b <= l2 && total <= last;
+        }
+
+        private static List<Tiles> neighbours(Tiles tiles, int square) {
+            List<Tiles> neighbours = new ArrayList<>();
+            for (int factor : new int[]{2, -2}) {
+                neighbours.add(new Tiles(scale(tiles.bi(), factor), tiles.bk(), tiles.bj(), square));
+                neighbours.add(new Tiles(tiles.bi(), scale(tiles.bk(), factor), tiles.bj(), square));
+                neighbours.add(new Tiles(tiles.bi(), tiles.bk(), scale(tiles.bj(), factor), square));
+            }
+            neighbours.removeIf(t -> Math.min(t.bi(), Math.min(t.bk(), t.bj())) < SIZES[0]
+                    || Math.max(t.bi(), Math.max(t.bk(), t.bj())) > SIZES[SIZES.length - 1]);
+            return neighbours;
+        }
+
+        private static int scale(int size, int factor) {
+            return factor > 0 ? size * factor : size / -factor;
+        }
+
+        // One warmup run, then the best of three timed runs
+        private static double probe(Tiles tiles, double[] pha, double[] phb, double[] phc, int ld,
+                                    int rows, int inner, int cols, Map<String, Double> timings) {
+            double best = Double.MAX_VALUE;
+            for (int run = 0; run < 4; run++) {
+                long Time1 = System.nanoTime();
+                kernelBlockTiled(pha, phb, phc, ld, rows, inner, cols, tiles.bi(), tiles.bk(), tiles.bj());
+                long Time2 = System.nanoTime();
+                if (run > 0) best = Math.min(best, (Time2 - Time1) / 1e9);
+            }
+            timings.put(tiles.toString(), best);
+            System.out.printf("Tiles %-12s %.3f GFLOP/s%n", tiles, 2.0 * rows * inner * cols / best / 1e9);
+            return best;
+        }
+
+        private static Properties load() throws IOException {
+            Properties profile = new Properties();
+            Path path = Path.of(PROFILE);
+            if (Files.exists(path)) {
+                try (InputStream input = Files.newInputStream(path)) {
+                    profile.load(input);
+                }
+            }
+            return profile;
+        }
+
+        private static void save(int dim, Tiles tiles) throws IOException {
+            Properties profile = load();
+            profile.setProperty(host() + "." + dim, tiles.bi() + "," + tiles.bk() + "," + tiles.bj() + "," + tiles.square());
+            try (OutputStream output = Files.newOutputStream(Path.of(PROFILE))) {
+                profile.store(output, "Block sizes tuned by matrixproduct.java, as <host>.<dimension>=bi,bk,bj,square");
+            }
+        }
+    }
+
+    // Single precision kernels: float storage and float accumulation, same loop nests as kernelLine and kernelBlock
+
+    public static void kernelLineFloat(float[] pha, float[] phb, float[] phc, int M, int K, int N) {
+        for (int i = 0; i < M; i++) {
+            for (int k = 0; k < K; k++) {
+                float a = pha[i * K + k];
+                for (int j = 0; j < N; j++) {
+                    phc[i * N + j] += a * phb[k * N + j];
+                }
+            }
+        }
+    }
+
+    public static void kernelBlockFloat(float[] pha, float[] phb, float[] phc, int M, int K, int N, int bkSize) {
+        for (int ii = 0; ii < M; ii += bkSize) {
+            for (int kk = 0; kk < K; kk += bkSize) {
+                for (int jj = 0; jj < N; jj += bkSize) {
+                    for (int i = ii; i < Math.min(ii + bkSize, M); i++) {
+                        for (int k = kk; k < Math.min(kk + bkSize, K); k++) {
+                            float a = pha[i * K + k];
+                            for (int j = jj; j < Math.min(jj + bkSize, N); j++) {
+                                phc[i * N + j] += a * phb[k * N + j];
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // Mixed precision kernels: float storage (half the memory traffic of double), double accumulation.
+    // The running sums live in a double row (line) or a double tile (block) and C is rounded to float once
+
+    public static void kernelLineMixed(float[] pha, float[] phb, float[] phc, int M, int K, int N) {
+        double[] row = new double[N];
+        for (int i = 0; i < M; i++) {
+            Arrays.fill(row, 0);
+            for (int k = 0; k < K; k++) {
+                double a = pha[i * K + k];
+                for (int j = 0; j < N; j++) {
+                    row[j] += a * phb[k * N + j];
+                }
+            }
+            for (int j = 0; j < N; j++) {
+                phc[i * N + j] += (float) row[j];
+            }
+        }
+    }
+
+    public static void kernelBlockMixed(float[] pha, float[] phb, float[] phc, int M, int K, int N, int bkSize) {
+        double[] tile = new double[bkSize * bkSize];
+        for (int ii = 0; ii < M; ii += bkSize) {
+            int iEnd = Math.min(ii + bkSize, M);
+            for (int jj = 0; jj < N; jj += bkSize) {
+                int jEnd = Math.min(jj + bkSize, N);
+                Arrays.fill(tile, 0);
+                for (int kk = 0; kk < K; kk += bkSize) {
+                    int kEnd = Math.min(kk + bkSize, K);
+                    for (int i = ii; i < iEnd; i++) {
+                        for (int k = kk; k < kEnd; k++) {
+                            double a = pha[i * K + k];
+                            for (int j = jj; j < jEnd; j++) {
+                                tile[(i - ii) * bkSize + j - jj] += a * phb[k * N + j];
+                            }
+                        }
+                    }
+                }
+                for (int i = ii; i < iEnd; i++) {
+                    for (int j = jj; j < jEnd; j++) {
+                        phc[i * N + j] += (float) tile[(i - ii) * bkSize + j - jj];
+                    }
+                }
+            }
+        }
+    }
+
+    // Throughput and error of the double, float and mixed precision line and block kernels on the same random
+    // matrices. Errors are measured against the double line kernel and are relative to the largest |C| element
+    public static void precisionReport(int dim, int bkSize) {
+        Random random = new Random(42);
+        double[] pha = new double[dim * dim];
+        double[] phb = new double[dim * dim];
+        float[] phaF = new float[dim * dim];
+        float[] phbF = new float[dim * dim];
+        for (int i = 0; i < dim * dim; i++) {
+            phaF[i] = (float) (random.nextDouble() * 2 - 1);
+            phbF[i] = (float) (random.nextDouble() * 2 - 1);
+            pha[i] = phaF[i];
+            phb[i] = phbF[i];
+        }
+
+        double[] reference = new double[dim * dim];
+        kernelLine(pha, phb, reference, dim, dim, dim);
+        double scale = Arrays.stream(reference).map(Math::abs).max().orElse(1);
+
+        System.out.printf("Dimensions: %d, Block Size: %d%n", dim, bkSize);
+        System.out.printf("%-12s %-8s %-8s %-10s %-9s %-12s %-12s %-10s%n",
+                "Kernel", "Storage", "Accum", "Time (s)", "GFLOP/s", "Max error", "RMS error", "Bytes/elem");
+
+        String[] kernels = {"line", "block", "line-float", "block-float", "line-mixed", "block-mixed"};
+        for (String kernel : kernels) {
+            boolean single = !kernel.equals("line") && !kernel.equals("block");
+            double[] phc = new double[dim * dim];
+            float[] phcF = new float[dim * dim];
+
+            // One untimed run to warm up the JIT, then the timed one
+            double seconds = 0;
+            for (int run = 0; run < 2; run++) {
+                Arrays.fill(phc, 0);
+                Arrays.fill(phcF, 0);
+                long Time1 = System.nanoTime();
+                switch (kernel) {
+                    case "line" -> kernelLine(pha, phb, phc, dim, dim, dim);
+                    case "block" -> kernelBlockTiled(pha, phb, phc, dim, dim, dim, dim, bkSize, bkSize, bkSize);
+                    case "line-float" -> kernelLineFloat(phaF, phbF, phcF, dim, dim, dim);
+                    case "block-float" -> kernelBlockFloat(phaF, phbF, phcF, dim, dim, dim, bkSize);
+                    case "line-mixed" -> kernelLineMixed(phaF, phbF, phcF, dim, dim, dim);
+                    case "block-mixed" -> kernelBlockMixed(phaF, phbF, phcF, dim, dim, dim, bkSize);
+                }
+                seconds = (System.nanoTime() - Time1) / 1e9;
+            }
+
+            double maxError = 0, sumSquares = 0;
+            for (int i = 0; i < dim * dim; i++) {
+                double error = Math.abs((single ? phcF[i] : phc[i]) - reference[i]) / scale;
+                maxError = Math.max(maxError, error);
+                sumSquares += error * error;
+            }
+
+            System.out.printf("%-12s %-8s %-8s %-10.3f %-9.3f %-12.3e %-12.3e %-10d%n", kernel,
+                    single ? "float" : "double", kernel.endsWith("float") ? "float" : "double", seconds,
+                    2.0 * dim * dim * dim / seconds / 1e9, maxError, Math.sqrt(sumSquares / (dim * (double) dim)),
+                    single ? Float.BYTES : Double.BYTES);
+        }
+    }
+
+    // Runs body(i) for every i in [start, end) on a ForkJoinPool, halving the range down to grain iterations
+    @SuppressWarnings("serial")   // Never serialized, ForkJoinTask is Serializable only by inheritance
+    private static final class ParallelRows extends RecursiveAction {
+
+        private final int start, end, grain;
+        private final IntConsumer body;
+
+        ParallelRows(int start, int end, int grain, IntConsumer body) {
+            this.start = start;
+            this.end = end;
+            this.grain = Math.max(1, grain);
+            this.body = body;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= grain) {
+                for (int i = start; i < end; i++) body.accept(i);
+                return;
+            }
+            int middle = (start + end) >>> 1;
+            invokeAll(new ParallelRows(start, middle, grain, body), new ParallelRows(middle, end, grain, body));
+        }
+    }
+
+    // Compressed Sparse Row: the non-zeros of row i are values[rowPtr[i]..rowPtr[i+1]), in the columns colIdx[...]
+    static final class CsrMatrix {
+
+        final int rows, cols;
+        final int[] rowPtr;
+        final int[] colIdx;
+        final double[] values;
+
+        CsrMatrix(int rows, int cols, int[] rowPtr, int[] colIdx, double[] values) {
+            this.rows = rows;
+            this.cols = cols;
+            this.rowPtr = rowPtr;
+            this.colIdx = colIdx;
+            this.values = values;
+        }
+
+        static CsrMatrix fromDense(double[] dense, int rows, int cols) {
+            int[] rowPtr = new int[rows + 1];
+            for (int i = 0; i < rows; i++) {
+                int count = 0;
+                for (int j = 0; j < cols; j++) if (dense[i * cols + j] != 0) count++;
+                rowPtr[i + 1] = rowPtr[i] + count;
+            }
+            int[] colIdx = new int[rowPtr[rows]];
+            double[] values = new double[rowPtr[rows]];
+            for (int i = 0, p = 0; i < rows; i++) {
+                for (int j = 0; j < cols; j++) {
+                    double value = dense[i * cols + j];
+                    if (value != 0) {
+                        colIdx[p] = j;
+                        values[p++] = value;
+                    }
+                }
+            }
+            return new CsrMatrix(rows, cols, rowPtr, colIdx, values);
+        }
+
+        int nonZeros() {
+            return this.rowPtr[this.rows];
+        }
+
+        void toDense(double[] dense) {
+            Arrays.fill(dense, 0, rows * cols, 0);
+            for (int i = 0; i < rows; i++)
+                for (int p = rowPtr[i]; p < rowPtr[i + 1]; p++)
+                    dense[i * cols + colIdx[p]] = values[p];
+        }
+    }
+
+    // Compressed Sparse Column: the non-zeros of column j are values[colPtr[j]..colPtr[j+1]), in the rows rowIdx[...]
+    static final class CscMatrix {
+
+        final int rows, cols;
+        final int[] colPtr;
+        final int[] rowIdx;
+        final double[] values;
+
+        CscMatrix(int rows, int cols, int[] colPtr, int[] rowIdx, double[] values) {
+            this.rows = rows;
+            this.cols = cols;
+            this.colPtr = colPtr;
+            this.rowIdx = rowIdx;
+            this.values = values;
+        }
+
+        static CscMatrix fromDense(double[] dense, int rows, int cols) {
+            int[] colPtr = new int[cols + 1];
+            for (int j = 0; j < cols; j++) {
+                int count = 0;
+                for (int i = 0; i < rows; i++) if (dense[i * cols + j] != 0) count++;
+                colPtr[j + 1] = colPtr[j] + count;
+            }
+            int[] rowIdx = new int[colPtr[cols]];
+            double[] values = new double[colPtr[cols]];
+            for (int j = 0, p = 0; j < cols; j++) {
+                for (int i = 0; i < rows; i++) {
+                    double value = dense[i * cols + j];
+                    if (value != 0) {
+                        rowIdx[p] = i;
+                        values[p++] = value;
+                    }
+                }
+            }
+            return new CscMatrix(rows, cols, colPtr, rowIdx, values);
+        }
+    }
+
+    // Rows are independent in every sparse kernel below, so they are split between the workers of the pool
+    private static final int SPARSE_GRAIN = 16;
+
+    // SpMM: C (rows x n) += A (CSR) * B (dense, A.cols x n). Only the non-zeros of A touch B
+    public static void kernelSpmm(CsrMatrix pha, double[] phb, double[] phc, int n, ForkJoinPool pool) {
+        pool.invoke(new ParallelRows(0, pha.rows, SPARSE_GRAIN, i -> {
+            for (int p = pha.rowPtr[i]; p < pha.rowPtr[i + 1]; p++) {
+                double a = pha.values[p];
+                int k = pha.colIdx[p];
+                for (int j = 0; j < n; j++) {
+                    phc[i * n + j] += a * phb[k * n + j];
+                }
+            }
+        }));
+    }
+
+    // C (m x B.cols) += A (dense, m x B.rows) * B (CSC): each C element is a dot product over the non-zeros of a B column
+    public static void kernelDenseCsc(double[] pha, CscMatrix phb, double[] phc, int m, ForkJoinPool pool) {
+        int k = phb.rows, n = phb.cols;
+        pool.invoke(new ParallelRows(0, m, SPARSE_GRAIN, i -> {
+            for (int j = 0; j < n; j++) {
+                double temp = 0;
+                for (int p = phb.colPtr[j]; p < phb.colPtr[j + 1]; p++) {
+                    temp += pha[i * k + phb.rowIdx[p]] * phb.values[p];
+                }
+                phc[i * n + j] += temp;
+            }
+        }));
+    }
+
+    // SpGEMM (Gustavson): row i of C merges the rows of B selected by the non-zeros of row i of A, through a dense
+    // accumulator per worker. The rows are computed in parallel and then concatenated into the CSR result
+    public static CsrMatrix kernelSpgemm(CsrMatrix pha, CsrMatrix phb, ForkJoinPool pool) {
+        int rows = pha.rows, cols = phb.cols;
+        int[][] rowCols = new int[rows][];
+        double[][] rowValues = new double[rows][];
+        ThreadLocal<double[]> accumulators = ThreadLocal.withInitial(() -> new double[cols]);
+        ThreadLocal<int[]> markers = ThreadLocal.withInitial(() -> {
+            int[] marker = new int[cols];
+            Arrays.fill(marker, -1);
+            return marker;
+        });
+
+        pool.invoke(new ParallelRows(0, rows, SPARSE_GRAIN, i -> {
+            double[] accumulator = accumulators.get();
+            int[] marker = markers.get();
+            int[] touched = new int[Math.min(cols, Math.max(1, estimateRow(pha, phb, i)))];
+            int count = 0;
+            for (int p = pha.rowPtr[i]; p < pha.rowPtr[i + 1]; p++) {
+                double a = pha.values[p];
+                int k = pha.colIdx[p];
+                for (int q = phb.rowPtr[k]; q < phb.rowPtr[k + 1]; q++) {
+                    int j = phb.colIdx[q];
+                    if (marker[j] != i) {
+                        marker[j] = i;
+                        accumulator[j] = 0;
+                        if (count == touched.length) touched = Arrays.copyOf(touched, Math.min(cols, 2 * count));
+                        touched[count++] = j;
+                    }
+                    accumulator[j] += a * phb.values[q];
+                }
+            }
+            Arrays.sort(touched, 0, count);
+            double[] values = new double[count];
+            for (int t = 0; t < count; t++) values[t] = accumulator[touched[t]];
+            rowCols[i] = Arrays.copyOf(touched, count);
+            rowValues[i] = values;
+        }));
+
+        int[] rowPtr = new int[rows + 1];
+        for (int i = 0; i < rows; i++) rowPtr[i + 1] = rowPtr[i] + rowCols[i].length;
+        int[] colIdx = new int[rowPtr[rows]];
+        double[] values = new double[rowPtr[rows]];
+        for (int i = 0; i < rows; i++) {
+            System.arraycopy(rowCols[i], 0, colIdx, rowPtr[i], rowCols[i].length);
+            System.arraycopy(rowValues[i], 0, values, rowPtr[i], rowValues[i].length);
+        }
+        return new CsrMatrix(rows, cols, rowPtr, colIdx, values);
+    }
+
+    // Upper bound of the non-zeros of row i of A * B
+    private static int estimateRow(CsrMatrix pha, CsrMatrix phb, int i) {
+        int estimate = 0;
+        for (int p = pha.rowPtr[i]; p < pha.rowPtr[i + 1]; p++) {
+            int k = pha.colIdx[p];
+            estimate += phb.rowPtr[k + 1] - phb.rowPtr[k];
+        }
+        return estimate;
+    }
+
+    // Operands with a fraction of non-zeros under this threshold are multiplied in sparse form
+    private static final double SPARSE_DENSITY = 0.05;
+
+    public static double density(double[] matrix, int size) {
+        int nonZeros = 0;
+        for (int i = 0; i < size; i++) if (matrix[i] != 0) nonZeros++;
+        return size == 0 ? 0 : (double) nonZeros / size;
+    }
+
+    // Measures the density of A and B and routes the product to SpGEMM, SpMM, dense x CSC or, when both are dense,
+    // to the dense packed kernel. Returns the name of the path taken
+    public static String multiplyAdaptive(double[] pha, double[] phb, double[] phc, int M, int K, int N, ForkJoinPool pool) {
+        boolean sparseA = density(pha, M * K) < SPARSE_DENSITY;
+        boolean sparseB = density(phb, K * N) < SPARSE_DENSITY;
+
+        if (sparseA && sparseB) {
+            CsrMatrix product = kernelSpgemm(CsrMatrix.fromDense(pha, M, K), CsrMatrix.fromDense(phb, K, N), pool);
+            for (int i = 0; i < M; i++)
+                for (int p = product.rowPtr[i]; p < product.rowPtr[i + 1]; p++)
+                    phc[i * N + product.colIdx[p]] += product.values[p];
+            return "spgemm";
+        }
+        if (sparseA) {
+            kernelSpmm(CsrMatrix.fromDense(pha, M, K), phb, phc, N, pool);
+            return "spmm";
+        }
+        if (sparseB) {
+            kernelDenseCsc(pha, CscMatrix.fromDense(phb, K, N), phc, M, pool);
+            return "dense-csc";
+        }
+        kernelPacked(pha, phb, phc, M, K, N);
+        return "dense";
+    }
+
+    // Random matrix with about density * dim^2 non-zeros in [-1, 1)
+    private static double[] randomSparse(int dim, double density, Random random) {
+        double[] matrix = new double[dim * dim];
+        for (int i = 0; i < dim * dim; i++)
+            if (random.nextDouble() < density) matrix[i] = random.nextDouble() * 2 - 1;
+        return matrix;
+    }
+
+    // Times the adaptive dispatch against the dense packed kernel for random A and B of the given densities
+    public static void sparseReport(int dim, double densityA, double densityB, int threads) {
+        Random random = new Random(42);
+        double[] pha = randomSparse(dim, densityA, random);
+        double[] phb = randomSparse(dim, densityB, random);
+        double[] sparse = new double[dim * dim];
+        double[] dense = new double[dim * dim];
+        ForkJoinPool pool = new ForkJoinPool(threads);
+
+        // One untimed run of each to warm up the JIT
+        multiplyAdaptive(pha, phb, sparse, dim, dim, dim, pool);
+        kernelPacked(pha, phb, dense, dim, dim, dim);
+        Arrays.fill(sparse, 0);
+        Arrays.fill(dense, 0);
+
+        long Time1 = System.nanoTime();
+        String path = multiplyAdaptive(pha, phb, sparse, dim, dim, dim, pool);
+        long Time2 = System.nanoTime();
+        kernelPacked(pha, phb, dense, dim, dim, dim);
+        long Time3 = System.nanoTime();
+        pool.shutdown();
+
+        double maxError = 0;
+        for (int i = 0; i < dim * dim; i++) maxError = Math.max(maxError, Math.abs(sparse[i] - dense[i]));
+
+        System.out.printf("Dimensions: %d, density A: %.4f, density B: %.4f, threads: %d%n",
+                dim, density(pha, dim * dim), density(phb, dim * dim), threads);
+        System.out.printf("Adaptive (%s): %.3f seconds%n", path, (Time2 - Time1) / 1e9);
+        System.out.printf("Dense (packed): %.3f seconds%n", (Time3 - Time2) / 1e9);
+        System.out.printf("Max abs difference: %.3e%n", maxError);
+    }
+
+    // Batched product of many small matrices (16x16 to 256x256) stored back to back in three arrays: matrix b of the
+    // batch starts at b * strideA in A, b * strideB in B and b * strideC in C. The batch is split between the workers
+    // of a ForkJoinPool, each worker multiplies whole matrices through its own row workspace, allocated on its first
+    // call and reused afterwards, so that no arrays are allocated per matrix or per call
+    static final class BatchedGemm {
+
+        private static final long GRAIN_FLOPS = 1L << 21;  // Work of a task, about a millisecond of one core
+
+        final int M, K, N;
+        private final int grain;
+        private final ThreadLocal<double[]> rows;
+
+        BatchedGemm(int M, int K, int N) {
+            this.M = M;
+            this.K = K;
+            this.N = N;
+            this.grain = (int) Math.max(1, GRAIN_FLOPS / (2L * M * K * N));
+            this.rows = ThreadLocal.withInitial(() -> new double[N]);
+        }
+
+        // C[b] = A[b] * B[b] for the count matrices of a densely packed batch
+        void multiply(double[] pha, double[] phb, double[] phc, int count, ForkJoinPool pool) {
+            multiply(pha, M * K, phb, K * N, phc, M * N, count, pool);
+        }
+
+        void multiply(double[] pha, int strideA, double[] phb, int strideB, double[] phc, int strideC, int count,
+                      ForkJoinPool pool) {
+            pool.invoke(new ParallelRows(0, count, grain, b ->
+                    multiplyOne(pha, b * strideA, phb, b * strideB, phc, b * strideC, rows.get())));
+        }
+
+        // Line order over one matrix: row i of C is accumulated in the workspace, with the Vector API, and stored
+        // once, so C does not have to be reset between calls
+        private void multiplyOne(double[] pha, int a0, double[] phb, int b0, double[] phc, int c0, double[] row) {
+            int lanes = SPECIES.length();
+            int upperBound = SPECIES.loopBound(N);
+            for (int i = 0; i < M; i++) {
+                Arrays.fill(row, 0);
+                for (int k = 0; k < K; k++) {
+                    double a = pha[a0 + i * K + k];
+                    DoubleVector va = DoubleVector.broadcast(SPECIES, a);
+                    int bRow = b0 + k * N;
+                    int j = 0;
+                    for (; j < upperBound; j += lanes) {
+                        DoubleVector vb = DoubleVector.fromArray(SPECIES, phb, bRow + j);
+                        DoubleVector vc = DoubleVector.fromArray(SPECIES, row, j);
+                        vb.fma(va, vc).intoArray(row, j);
+                    }
+                    for (; j < N; j++) {
+                        row[j] += a * phb[bRow + j];
+                    }
+                }
+                System.arraycopy(row, 0, phc, c0 + i * N, N);
+            }
+        }
+    }
+
+    // SUMMA over local worker JVMs. The C matrix is split in a rows x cols grid of blocks, one per worker, and for
+    // each panel of BLOCK_SIZE columns of A (rows of B) the coordinator sends worker (i, j) its A(i, panel) and
+    // B(panel, j) pieces, which the worker accumulates into C(i, j) with the packed kernel. The coordinator is the
+    // root of every row and column broadcast, so panels are streamed while earlier ones are being multiplied.
+    // Every message is a binary frame over a loopback SocketChannel, each worker is served by its own thread
+    static final class Summa {
+
+        private static final int BUFFER_BYTES = 1 << 20;
+        private static final long CONNECT_TIMEOUT = 60_000;    // Time the workers have to start and connect (milliseconds)
+
+        // Entry point of the "summa" mode: launches the workers, runs one product and reports its times
+        static double run(String[] mainArgs, int dim, int panel, int workers) throws Exception {
+            int gridRows = 1;
+            for (int r = 1; r * r <= workers; r++) if (workers % r == 0) gridRows = r;
+            int gridCols = workers / gridRows;
+
+            double[] pha = new double[dim * dim];
+            double[] phb = new double[dim * dim];
+            double[] phc = new double[dim * dim];
+            initMatrices(pha, phb, dim);
+
+            List<Process> processes = new ArrayList<>();
+            ExecutorService executor = Executors.newFixedThreadPool(workers);
+            try (ServerSocketChannel server = ServerSocketChannel.open()) {
+                server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+                int port = ((InetSocketAddress) server.getLocalAddress()).getPort();
+                for (int rank = 0; rank < workers; rank++) {
+                    List<String> command = Benchmark.forkCommand(mainArgs);
+                    command.addAll(List.of("summa-worker", String.valueOf(port)));
+                    processes.add(new ProcessBuilder(command).inheritIO().start());
+                }
+                SocketChannel[] channels = accept(server, processes, workers);
+
+                long Time1 = System.nanoTime();
+                List<Future<long[]>> results = new ArrayList<>();
+                for (int rank = 0; rank < workers; rank++) {
+                    int i0 = (int) ((long) dim * (rank / gridCols) / gridRows), i1 = (int) ((long) dim * (rank / gridCols + 1) / gridRows);
+                    int j0 = (int) ((long) dim * (rank % gridCols) / gridCols), j1 = (int) ((long) dim * (rank % gridCols + 1) / gridCols);
+                    SocketChannel channel = channels[rank];
+                    results.add(executor.submit(() -> serve(channel, pha, phb, phc, dim, i0, i1, j0, j1, panel)));
+                }
+                long[][] times = new long[workers][];
+                for (int rank = 0; rank < workers; rank++) times[rank] = results.get(rank).get();
+                long Time2 = System.nanoTime();
+
+                for (SocketChannel channel : channels) channel.close();
+                for (Process process : processes) process.waitFor();
+
+                double total = (Time2 - Time1) / 1e9;
+                boolean correct = Verify.check(pha, phb, phc, dim, dim, dim);
+                System.out.printf("Dimensions: %d, panel: %d, workers: %d (%d x %d grid)%n", dim, panel, workers, gridRows, gridCols);
+                System.out.printf("%6s %10s %10s %10s %10s %10s%n", "Worker", "Block", "Send s", "Gather s", "Compute s", "Wait s");
+                double maxCompute = 0;
+                for (int rank = 0; rank < workers; rank++) {
+                    long[] t = times[rank];
+                    maxCompute = Math.max(maxCompute, t[2] / 1e9);
+                    System.out.printf("%6d %10s %10.3f %10.3f %10.3f %10.3f%n", rank, (rank / gridCols) + "," + (rank % gridCols),
+                            t[0] / 1e9, t[1] / 1e9, t[2] / 1e9, t[3] / 1e9);
+                }
+                System.out.printf("Time: %.3f seconds (%.3f GFLOP/s), slowest worker compute %.3f, communication and waiting %.3f%n",
+                        total, 2.0 * dim * dim * dim / total / 1e9, maxCompute, total - maxCompute);
+                System.out.println("Result " + (correct ? "verified" : "WRONG") + ", Result Matrix: ");
+                for (int c = 0; c < Math.min(10, dim); c++) {
+                    System.out.printf("%.2f ", phc[c]);
+                }
+                System.out.println();
+                return total;
+            } finally {
+                executor.shutdown();
+                for (Process process : processes) process.destroy();
+            }
+        }
+
+        // Accepts one connection per worker, failing if a worker exits first or they take longer than CONNECT_TIMEOUT
+        private static SocketChannel[] accept(ServerSocketChannel server, List<Process> processes, int workers) throws IOException {
+            SocketChannel[] channels = new SocketChannel[workers];
+            long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT;
+            server.configureBlocking(false);
+            try (Selector selector = Selector.open()) {
+                server.register(selector, SelectionKey.OP_ACCEPT);
+                int connected = 0;
+                while (connected < workers) {
+                    for (Process process : processes) {
+                        if (!process.isAlive())
+                            throw new IOException("ERROR: SUMMA worker exited with " + process.exitValue() + " before connecting");
+                    }
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0)
+                        throw new IOException("ERROR: only " + connected + " of " + workers + " SUMMA workers connected in " + CONNECT_TIMEOUT / 1000 + " seconds");
+                    selector.select(Math.min(remaining, 200));
+                    selector.selectedKeys().clear();
+                    SocketChannel channel;
+                    while (connected < workers && (channel = server.accept()) != null) {
+                        channel.configureBlocking(true);
+                        channel.socket().setTcpNoDelay(true);
+                        channels[connected++] = channel;
+                    }
+                }
+            } catch (IOException exception) {
+                for (SocketChannel channel : channels) if (channel != null) channel.close();
+                throw exception;
+            }
+            return channels;
+        }
+
+        // Coordinator side of one worker: header, every panel, then the C block back.
+        // Returns the send and gather times and the compute and wait times measured by the worker, in nanoseconds
+        private static long[] serve(SocketChannel channel, double[] pha, double[] phb, double[] phc, int dim,
+                                    int i0, int i1, int j0, int j1, int panel) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.nativeOrder());
+            int rows = i1 - i0, cols = j1 - j0;
+            int panels = Math.ceilDiv(dim, panel);
+            double[] aPanel = new double[rows * panel];
+            double[] bPanel = new double[panel * cols];
+
+            long Time1 = System.nanoTime();
+            writeInts(channel, buffer, rows, cols, panels);
+            for (int kk = 0; kk < dim; kk += panel) {
+                int kc = Math.min(panel, dim - kk);
+                for (int i = 0; i < rows; i++) System.arraycopy(pha, (i0 + i) * dim + kk, aPanel, i * kc, kc);
+                for (int k = 0; k < kc; k++) System.arraycopy(phb, (kk + k) * dim + j0, bPanel, k * cols, cols);
+                writeInts(channel, buffer, kc);
+                writeDoubles(channel, buffer, aPanel, 0, rows * kc);
+                writeDoubles(channel, buffer, bPanel, 0, kc * cols);
+            }
+            long Time2 = System.nanoTime();
+
+            long[] workerTimes = readLongs(channel, buffer, 2);
+            double[] block = new double[rows * cols];
+            readDoubles(channel, buffer, block, 0, block.length);
+            for (int i = 0; i < rows; i++) System.arraycopy(block, i * cols, phc, (i0 + i) * dim + j0, cols);
+            long Time3 = System.nanoTime();
+
+            return new long[]{Time2 - Time1, Time3 - Time2, workerTimes[0], workerTimes[1]};
+        }
+
+        // Entry point of "summa-worker <PORT>": receives panels until the last one, then sends back its C block
+        static void worker(String[] args) throws IOException {
+            try (SocketChannel channel = SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(args[1])))) {
+                channel.socket().setTcpNoDelay(true);
+                ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.nativeOrder());
+                long waitNanos = 0, computeNanos = 0;
+
+                long Time1 = System.nanoTime();
+                int[] header = readInts(channel, buffer, 3);
+                int rows = header[0], cols = header[1], panels = header[2];
+                double[] block = new double[rows * cols];
+                double[] aPanel = new double[0], bPanel = new double[0];
+                waitNanos += System.nanoTime() - Time1;
+
+                for (int p = 0; p < panels; p++) {
+                    Time1 = System.nanoTime();
+                    int kc = readInts(channel, buffer, 1)[0];
+                    if (aPanel.length < rows * kc) aPanel = new double[rows * kc];
+                    if (bPanel.length < kc * cols) bPanel = new double[kc * cols];
+                    readDoubles(channel, buffer, aPanel, 0, rows * kc);
+                    readDoubles(channel, buffer, bPanel, 0, kc * cols);
+                    long Time2 = System.nanoTime();
+                    kernelPacked(aPanel, bPanel, block, rows, kc, cols);
+                    long Time3 = System.nanoTime();
+                    waitNanos += Time2 - Time1;
+                    computeNanos += Time3 - Time2;
+                }
+
+                writeLongs(channel, buffer, computeNanos, waitNanos);
+                writeDoubles(channel, buffer, block, 0, block.length);
+            }
+        }
+
+        // Binary framing: values are written in native byte order through a direct buffer, which is flushed
+        // whenever it is full; reads fill the buffer until the requested count has arrived
+
+        private static void flush(SocketChannel channel, ByteBuffer buffer) throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) channel.write(buffer);
+            buffer.clear();
+        }
+
+        private static void fill(SocketChannel channel, ByteBuffer buffer, int bytes) throws IOException {
+            buffer.clear().limit(bytes);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) throw new IOException("Connection closed by peer");
+            }
+            buffer.flip();
+        }
+
+        private static void writeInts(SocketChannel channel, ByteBuffer buffer, int... values) throws IOException {
+            for (int value : values) buffer.putInt(value);
+            flush(channel, buffer);
+        }
+
+        private static void writeLongs(SocketChannel channel, ByteBuffer buffer, long... values) throws IOException {
+            for (long value : values) buffer.putLong(value);
+            flush(channel, buffer);
+        }
+
+        private static int[] readInts(SocketChannel channel, ByteBuffer buffer, int count) throws IOException {
+            fill(channel, buffer, count * Integer.BYTES);
+            int[] values = new int[count];
+            buffer.asIntBuffer().get(values);
+            return values;
+        }
+
+        private static long[] readLongs(SocketChannel channel, ByteBuffer buffer, int count) throws IOException {
+            fill(channel, buffer, count * Long.BYTES);
+            long[] values = new long[count];
+            buffer.asLongBuffer().get(values);
+            return values;
+        }
+
+        private static void writeDoubles(SocketChannel channel, ByteBuffer buffer, double[] values, int from, int count) throws IOException {
+            int chunk = buffer.capacity() / Double.BYTES;
+            for (int offset = from; offset < from + count; offset += chunk) {
+                int length = Math.min(chunk, from + count - offset);
+                buffer.asDoubleBuffer().put(values, offset, length);
+                buffer.position(length * Double.BYTES);
+                flush(channel, buffer);
+            }
+        }
+
+        private static void readDoubles(SocketChannel channel, ByteBuffer buffer, double[] values, int from, int count) throws IOException {
+            int chunk = buffer.capacity() / Double.BYTES;
+            for (int offset = from; offset < from + count; offset += chunk) {
+                int length = Math.min(chunk, from + count - offset);
+                fill(channel, buffer, length * Double.BYTES);
+                buffer.asDoubleBuffer().get(values, offset, length);
+            }
+        }
+    }
+
+    // Result verification without a reference product.
+    // Freivalds: C = A * B is checked against random vectors r as C r = A (B r), in O(n^2) per round.
+    // Tile checksums: the sum of every C tile is recorded by the checksummed blocked kernel as soon as the tile is
+    // complete, and compared against (sum of the A rows of the tile) * (sum of the B columns of the tile), which only
+    // costs O(n^3 / bkSize^2) and tells which tiles are wrong
+    static final class Verify {
+
+        // Largest accepted |C r - A (B r)|, relative to |A| (|B| |r|), far above rounding (about K * 1e-16) even
+        // for Strassen and far below the error of a single wrong element
+        static final double TOLERANCE = 1e-8;
+
+        // Returns the largest relative error over all rows and rounds
+        static double freivalds(double[] pha, double[] phb, double[] phc, int M, int K, int N, int rounds, Random random) {
+            double[] r = new double[N];
+            double[] br = new double[K], brAbs = new double[K];
+            double maxError = 0;
+            for (int round = 0; round < rounds; round++) {
+                for (int j = 0; j < N; j++) r[j] = random.nextDouble() * 2 - 1;
+                for (int k = 0; k < K; k++) {
+                    double sum = 0, sumAbs = 0;
+                    for (int j = 0; j < N; j++) {
+                        sum += phb[k * N + j] * r[j];
+                        sumAbs += Math.abs(phb[k * N + j] * r[j]);
+                    }
+                    br[k] = sum;
+                    brAbs[k] = sumAbs;
+                }
+                for (int i = 0; i < M; i++) {
+                    double abr = 0, bound = 0, cr = 0;
+                    for (int k = 0; k < K; k++) {
+                        abr += pha[i * K + k] * br[k];
+                        bound += Math.abs(pha[i * K + k]) * brAbs[k];
+                    }
+                    for (int j = 0; j < N; j++) cr += phc[i * N + j] * r[j];
+                    if (bound > 0) maxError = Math.max(maxError, Math.abs(cr - abr) / bound);
+                    else if (cr != 0) maxError = Double.POSITIVE_INFINITY;
+                }
+            }
+            return maxError;
+        }
+
+        static boolean check(double[] pha, double[] phb, double[] phc, int M, int K, int N) {
+            return freivalds(pha, phb, phc, M, K, N, 2, new Random()) <= TOLERANCE;
+        }
+
+        // kernelBlock in ii, jj, kk order, so that each C tile is complete after its kk loop and is summed while it
+        // is still in cache. tileSums[ti * tilesN + tj] receives the sum of tile (ti, tj)
+        static void kernelBlockChecksummed(double[] pha, double[] phb, double[] phc, int M, int K, int N, int bkSize,
+                                           double[] tileSums) {
+            int tilesN = Math.ceilDiv(N, bkSize);
+            for (int ii = 0; ii < M; ii += bkSize) {
+                int iEnd = Math.min(ii + bkSize, M);
+                for (int jj = 0; jj < N; jj += bkSize) {
+                    int jEnd = Math.min(jj + bkSize, N);
+                    for (int kk = 0; kk < K; kk += bkSize) {
+                        int kEnd = Math.min(kk + bkSize, K);
+                        for (int i = ii; i < iEnd; i++) {
+                            for (int k = kk; k < kEnd; k++) {
+                                double a = pha[i * K + k];
+                                for (int j = jj; j < jEnd; j++) {
+                                    phc[i * N + j] += a * phb[k * N + j];
+                                }
+                            }
+                        }
+                    }
+                    double sum = 0;
+                    for (int i = ii; i < iEnd; i++)
+                        for (int j = jj; j < jEnd; j++)
+                            sum += phc[i * N + j];
+                    tileSums[(ii / bkSize) * tilesN + jj / bkSize] = sum;
+                }
+            }
+        }
+
+        // Expected tile sums, with the same layout as kernelBlockChecksummed, and the matching magnitude bounds
+        // (the same products over |A| and |B|) that the tolerance of each tile is relative to
+        static double[][] expectedTileSums(double[] pha, double[] phb, int M, int K, int N, int bkSize) {
+            int tilesM = Math.ceilDiv(M, bkSize), tilesN = Math.ceilDiv(N, bkSize);
+            double[] aRows = new double[tilesM * K], aRowsAbs = new double[tilesM * K];
+            double[] bCols = new double[K * tilesN], bColsAbs = new double[K * tilesN];
+            for (int i = 0; i < M; i++) {
+                for (int k = 0; k < K; k++) {
+                    aRows[(i / bkSize) * K + k] += pha[i * K + k];
+                    aRowsAbs[(i / bkSize) * K + k] += Math.abs(pha[i * K + k]);
+                }
+            }
+            for (int k = 0; k < K; k++) {
+                for (int j = 0; j < N; j++) {
+                    bCols[k * tilesN + j / bkSize] += phb[k * N + j];
+                    bColsAbs[k * tilesN + j / bkSize] += Math.abs(phb[k * N + j]);
+                }
+            }
+            double[] sums = new double[tilesM * tilesN], bounds = new double[tilesM * tilesN];
+            for (int ti = 0; ti < tilesM; ti++) {
+                for (int k = 0; k < K; k++) {
+                    double a = aRows[ti * K + k], aAbs = aRowsAbs[ti * K + k];
+                    for (int tj = 0; tj < tilesN; tj++) {
+                        sums[ti * tilesN + tj] += a * bCols[k * tilesN + tj];
+                        bounds[ti * tilesN + tj] += aAbs * bColsAbs[k * tilesN + tj];
+                    }
+                }
+            }
+            return new double[][]{sums, bounds};
+        }
+
+        // Indices of the tiles whose recorded sum is off by more than TOLERANCE (relative)
+        static List<Integer> badTiles(double[] tileSums, double[][] expected) {
+            List<Integer> bad = new ArrayList<>();
+            for (int t = 0; t < tileSums.length; t++) {
+                double error = Math.abs(tileSums[t] - expected[0][t]);
+                if (error > TOLERANCE * expected[1][t] && error > 0) bad.add(t);
+            }
+            return bad;
+        }
+
+        // Entry point of the "verify" mode: runs ALGORITHM on random matrices and checks it with Freivalds, then runs
+        // the checksummed blocked kernel and checks its tiles, and compares every check with the time of the product
+        static void report(int dim, int bkSize, String algorithm, int rounds, int threads) {
+            Random random = new Random(42);
+            double[] pha = new double[dim * dim];
+            double[] phb = new double[dim * dim];
+            double[] phc = new double[dim * dim];
+            for (int i = 0; i < dim * dim; i++) {
+                pha[i] = random.nextDouble() * 2 - 1;
+                phb[i] = random.nextDouble() * 2 - 1;
+            }
+            ForkJoinPool pool = new ForkJoinPool(threads);
+
+            long Time1 = System.nanoTime();
+            runKernel(algorithm, pha, phb, phc, dim, dim, dim, bkSize, pool);
+            long Time2 = System.nanoTime();
+            double error = freivalds(pha, phb, phc, dim, dim, dim, rounds, random);
+            long Time3 = System.nanoTime();
+            pool.shutdown();
+            System.out.printf("Dimensions: %d, algorithm: %s%n", dim, algorithm);
+            System.out.printf("Multiply: %.3f seconds%n", (Time2 - Time1) / 1e9);
+            System.out.printf("Freivalds (%d rounds): %.3f seconds, relative error %.3e, %s%n",
+                    rounds, (Time3 - Time2) / 1e9, error, error <= TOLERANCE ? "passed" : "FAILED");
+
+            // A corrupted element has to be caught by both checks
+            phc[random.nextInt(dim * dim)] += 1;
+            double corrupted = freivalds(pha, phb, phc, dim, dim, dim, rounds, random);
+            System.out.printf("Freivalds with one corrupted element: relative error %.3e, %s%n",
+                    corrupted, corrupted <= TOLERANCE ? "MISSED" : "detected");
+
+            int tiles = Math.ceilDiv(dim, bkSize) * Math.ceilDiv(dim, bkSize);
+            double[] tileSums = new double[tiles];
+            Arrays.fill(phc, 0);
+            Time1 = System.nanoTime();
+            kernelBlockChecksummed(pha, phb, phc, dim, dim, dim, bkSize, tileSums);
+            Time2 = System.nanoTime();
+            double[][] expected = expectedTileSums(pha, phb, dim, dim, dim, bkSize);
+            List<Integer> bad = badTiles(tileSums, expected);
+            Time3 = System.nanoTime();
+            System.out.printf("Checksummed block (%d): %.3f seconds, tile check %.3f seconds, %d of %d tiles wrong%n",
+                    bkSize, (Time2 - Time1) / 1e9, (Time3 - Time2) / 1e9, bad.size(), tiles);
+
+            tileSums[random.nextInt(tiles)] += 1;
+            System.out.printf("Tile check with one corrupted tile: %d tiles wrong%n", badTiles(tileSums, expected).size());
+        }
+    }
+
+    // NUMA-aware blocked product. The rows of A and C are split between the nodes of /sys/devices/system/node, and
+    // each node gets its own copy of B. Every node's matrices are allocated off-heap (and so zeroed, i.e. first
+    // touched) by a thread pinned to that node, and its rows are multiplied by threads pinned to the same node, so
+    // no thread reads or writes memory of another node. Threads are pinned with sched_setaffinity through the FFM API
+    static final class Numa {
+
+        private static final Path NODES = Path.of("/sys/devices/system/node");
+        private static final MethodHandle SCHED_SETAFFINITY = Linker.nativeLinker().defaultLookup().find("sched_setaffinity")
+                .map(symbol -> Linker.nativeLinker().downcallHandle(symbol, FunctionDescriptor.of(JAVA_INT, JAVA_INT, JAVA_LONG, ADDRESS)))
+                .orElse(null);
+
+        record Node(int id, List<Integer> cpus) {}
+
+        // Nodes with CPUs, or a single node with every processor when the topology is not available
+        static List<Node> topology() {
+            List<Node> nodes = new ArrayList<>();
+            try (var entries = Files.list(NODES)) {
+                for (Path entry : entries.filter(path -> path.getFileName().toString().matches("node\\d+")).sorted().toList()) {
+                    List<Integer> cpus = parseCpuList(Files.readString(entry.resolve("cpulist")).trim());
+                    if (!cpus.isEmpty()) nodes.add(new Node(Integer.parseInt(entry.getFileName().toString().substring(4)), cpus));
+                }
+            } catch (IOException exception) {
+                System.out.println("Could not read the NUMA topology: " + exception.getMessage());
+            }
+            if (nodes.isEmpty()) {
+                List<Integer> cpus = new ArrayList<>();
+                for (int cpu = 0; cpu < Runtime.getRuntime().availableProcessors(); cpu++) cpus.add(cpu);
+                nodes.add(new Node(0, cpus));
+            }
+            nodes.sort(Comparator.comparingInt(Node::id));
+            return nodes;
+        }
+
+        // "0-3,8-11" -> [0, 1, 2, 3, 8, 9, 10, 11]
+        static List<Integer> parseCpuList(String list) {
+            List<Integer> cpus = new ArrayList<>();
+            if (list.isEmpty()) return cpus;
+            for (String range : list.split(",")) {
+                String[] bounds = range.split("-");
+                int first = Integer.parseInt(bounds[0]), last = Integer.parseInt(bounds[bounds.length - 1]);
+                for (int cpu = first; cpu <= last; cpu++) cpus.add(cpu);
+            }
+            return cpus;
+        }
+
+        // Restricts the calling thread to the given CPUs. Returns false when it could not be pinned
+        static boolean pin(List<Integer> cpus) {
+            if (SCHED_SETAFFINITY == null) return false;
+            long words = cpus.stream().mapToInt(Integer::intValue).max().orElse(0) / 64 + 1;
+            try (Arena arena = Arena.ofConfined()) {
+                MemorySegment mask = arena.allocate(words * Long.BYTES, Long.BYTES);
+                for (int cpu : cpus) mask.setAtIndex(JAVA_LONG, cpu / 64, mask.getAtIndex(JAVA_LONG, cpu / 64) | 1L << (cpu % 64));
+                return (int) SCHED_SETAFFINITY.invokeExact(0, words * Long.BYTES, mask) == 0;
+            } catch (Throwable exception) {
+                return false;
+            }
+        }
+
+        // Page allocation counters of a node (local_node, other_node), to check where the matrices were placed
+        static long[] numastat(int node) {
+            long[] values = {-1, -1};
+            try {
+                for (String line : Files.readAllLines(NODES.resolve("node" + node).resolve("numastat"))) {
+                    String[] fields = line.split(" ");
+                    if (fields[0].equals("local_node")) values[0] = Long.parseLong(fields[1]);
+                    if (fields[0].equals("other_node")) values[1] = Long.parseLong(fields[1]);
+                }
+            } catch (IOException | RuntimeException exception) {
+                // No counters, reported as unknown
+            }
+            return values;
+        }
+
+        // Runs body(index) on one new thread per index, each pinned to cpus(index) first, and waits for all of them.
+        // Returns the number of threads that could not be pinned. If a body fails, throws an IllegalStateException
+        // with the first failure as cause and the others suppressed, so that no node is reported from a failed run
+        private static int pinnedThreads(int count, IntFunction<List<Integer>> cpus, IntConsumer body) throws InterruptedException {
+            Thread[] threads = new Thread[count];
+            boolean[] pinned = new boolean[count];
+            Throwable[] failures = new Throwable[count];
+            for (int index = 0; index < count; index++) {
+                int current = index;
+                threads[index] = new Thread(() -> {
+                    try {
+                        pinned[current] = pin(cpus.apply(current));
+                        body.accept(current);
+                    } catch (Throwable failure) {
+                        failures[current] = failure;
+                    }
+                });
+                threads[index].start();
+            }
+            for (Thread thread : threads) thread.join();
+            IllegalStateException failed = null;
+            for (int index = 0; index < count; index++) {
+                if (failures[index] == null) continue;
+                if (failed == null) failed = new IllegalStateException("Pinned thread " + index + " failed", failures[index]);
+                else failed.addSuppressed(failures[index]);
+            }
+            if (failed != null) throw failed;
+            int unpinned = 0;
+            for (boolean value : pinned) if (!value) unpinned++;
+            return unpinned;
+        }
+
+        // Entry point of the "numa" mode
+        static void report(int dim, int bkSize, int threadsPerNode) throws InterruptedException {
+            List<Node> nodes = topology();
+            int count = nodes.size();
+            int[] firstRow = new int[count + 1];
+            for (int n = 0; n <= count; n++) firstRow[n] = (int) ((long) dim * n / count);
+            System.out.printf("Dimensions: %d, block size: %d, nodes: %d, pinning %s%n", dim, bkSize, count,
+                    SCHED_SETAFFINITY == null ? "unavailable" : "with sched_setaffinity");
+
+            // Placement: each node allocates and initializes its rows of A and C and its copy of B
+            Arena[] arenas = new Arena[count];
+            MemorySegment[] aParts = new MemorySegment[count], bCopies = new MemorySegment[count], cParts = new MemorySegment[count];
+            long[][] before = new long[count][];
+            for (int n = 0; n < count; n++) before[n] = numastat(nodes.get(n).id());
+            long Time1 = System.nanoTime();
+            int unpinned = pinnedThreads(count, n -> nodes.get(n).cpus(), n -> {
+                long rows = firstRow[n + 1] - firstRow[n];
+                arenas[n] = Arena.ofShared();
+                aParts[n] = arenas[n].allocate(rows * dim * Double.BYTES, OffHeapMatrix.ALIGNMENT);
+                bCopies[n] = arenas[n].allocate((long) dim * dim * Double.BYTES, OffHeapMatrix.ALIGNMENT);
+                cParts[n] = arenas[n].allocate(rows * dim * Double.BYTES, OffHeapMatrix.ALIGNMENT);
+                for (long index = 0; index < rows * dim; index++)
+                    aParts[n].setAtIndex(JAVA_DOUBLE, index, 1);
+                for (long k = 0; k < dim; k++)
+                    for (long j = 0; j < dim; j++)
+                        bCopies[n].setAtIndex(JAVA_DOUBLE, k * dim + j, k + 1);
+            });
+            long Time2 = System.nanoTime();
+            System.out.printf("Setup: %.3f seconds%n", (Time2 - Time1) / 1e9);
+
+            // Multiplication: the rows of a node are split between its threads
+            long[] nodeNanos = new long[count];
+            int threads = count * threadsPerNode;
+            long Time3 = System.nanoTime();
+            unpinned += pinnedThreads(threads, t -> nodes.get(t / threadsPerNode).cpus(), t -> {
+                int n = t / threadsPerNode, slice = t % threadsPerNode;
+                long rows = firstRow[n + 1] - firstRow[n];
+                long r0 = rows * slice / threadsPerNode, r1 = rows * (slice + 1) / threadsPerNode;
+                long bytes = (long) dim * Double.BYTES;
+                long start = System.nanoTime();
+                kernelBlockOffHeap(aParts[n].asSlice(r0 * bytes, (r1 - r0) * bytes), bCopies[n],
+                        cParts[n].asSlice(r0 * bytes, (r1 - r0) * bytes), r1 - r0, dim, dim, bkSize);
+                long elapsed = System.nanoTime() - start;
+                synchronized (nodeNanos) {
+                    nodeNanos[n] = Math.max(nodeNanos[n], elapsed);
+                }
+            });
+            long Time4 = System.nanoTime();
+            if (unpinned > 0) System.out.printf("Could not pin %d thread(s), their placement is up to the OS%n", unpinned);
+
+            // Per node: time, GFLOP/s and the DRAM traffic of the blocked loop nest (A once per row of tiles,
+            // B once per row of tiles, C read and written once per k tile) over its time
+            System.out.printf("%6s %10s %8s %8s %10s %10s %10s %12s %12s%n", "Node", "CPUs", "Rows", "Threads",
+                    "Time s", "GFLOP/s", "Est. GB/s", "Local pages", "Remote pages");
+            long expected = (long) dim * (dim + 1) / 2;
+            boolean correct = true;
+            for (int n = 0; n < count; n++) {
+                long rows = firstRow[n + 1] - firstRow[n];
+                double seconds = nodeNanos[n] / 1e9;
+                double tiles = Math.ceil((double) rows / bkSize), kTiles = Math.ceil((double) dim / bkSize);
+                double traffic = Double.BYTES * (rows * (double) dim + tiles * dim * (double) dim + 2 * kTiles * rows * dim);
+                long[] after = numastat(nodes.get(n).id());
+                System.out.printf("%6d %10d %8d %8d %10.3f %10.3f %10.3f %12s %12s%n", nodes.get(n).id(), nodes.get(n).cpus().size(),
+                        rows, threadsPerNode, seconds, 2.0 * rows * dim * dim / seconds / 1e9, traffic / seconds / 1e9,
+                        after[0] < 0 ? "-" : String.valueOf(after[0] - before[n][0]),
+                        after[1] < 0 ? "-" : String.valueOf(after[1] - before[n][1]));
+                for (long index = 0; index < rows * dim; index++)
+                    correct &= cParts[n].getAtIndex(JAVA_DOUBLE, index) == expected;
+            }
+            System.out.printf("Time: %.3f seconds (%.3f GFLOP/s), result %s%n", (Time4 - Time3) / 1e9,
+                    2.0 * dim * dim * dim / ((Time4 - Time3) / 1e9) / 1e9, correct ? "verified" : "WRONG");
+
+            for (Arena arena : arenas) arena.close();
+        }
+    }
+
+    // Long-running multiply service. One selector thread accepts connections and reads requests without blocking.
+    // Complete requests are queued to a fixed pool of workers, which run the kernels on their own pooled arrays.
+    // The responses go back to the selector thread to be written. The kernels are warmed up before the port is
+    // opened, so clients pay neither JVM startup nor JIT warmup.
+    // Request: int MAGIC, algorithm, M, K, N, block size, long id (32 bytes), then A (M x K) and B (K x N) as doubles.
+    // Response: long id, int status (0 ok, 1 failed), int 0, long queue and compute nanoseconds (32 bytes), then C.
+    // Every value is in native byte order, and a connection has at most one request in flight.
+    // The server listens on loopback unless bind= says otherwise. It holds at most sessions= connections, and the
+    // requests in flight share a memory budget: a request is only read once its bytes fit in the budget, the
+    // others wait, and a request larger than the whole budget closes its connection
+    static final class MultiplyServer {
+
+        static final int MAGIC = 0x4350444D;
+        static final int HEADER_BYTES = 32;
+        static final List<String> ALGORITHMS = List.of("mult", "line", "line-vector", "block", "block-parallel",
+                "transposed", "recursive", "packed", "adaptive", "strassen");
+        private static final long MAX_ELEMENTS = 1L << 27;  // A + B + C of one request, 1 GB of doubles
+        private static final int RETAIN_BYTES = 8 << 20;    // Buffers and worker arrays kept between requests, at most
+
+        // Bytes reserved by the requests in flight. Used by the selector thread only
+        private static final class Budget {
+
+            final long limit;
+            long inFlight;
+
+            Budget(long limit) {
+                this.limit = limit;
+            }
+
+            boolean reserve(long bytes) {
+                if (inFlight + bytes > limit) return false;
+                inFlight += bytes;
+                return true;
+            }
+
+            void release(long bytes) {
+                inFlight -= bytes;
+            }
+        }
+
+        // Arrays of a worker, grown to the largest request it has served and then reused
+        private static final ThreadLocal<double[][]> WORKSPACES = ThreadLocal.withInitial(() -> new double[3][0]);
+
+        private static final class Session {
+
+            final SocketChannel channel;
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.nativeOrder());
+            ByteBuffer payload = ByteBuffer.allocateDirect(0);
+            ByteBuffer response = ByteBuffer.allocateDirect(0);
+            int algorithm, M, K, N, bkSize;
+            long id, received;
+            long cost;              // Bytes of the request: its buffers, and the arrays of the worker
+            boolean admitted;       // The cost is reserved in the budget
+
+            Session(SocketChannel channel) {
+                this.channel = channel;
+            }
+
+            // Header read, waiting for room in the budget
+            boolean waiting() {
+                return !header.hasRemaining() && !admitted;
+            }
+
+            // Reserves the cost of the request and prepares the payload buffer, if the budget has room
+            boolean admit(Budget budget) {
+                if (!budget.reserve(cost)) return false;
+                admitted = true;
+                int bytes = (M * K + K * N) * Double.BYTES;
+                payload = capacity(payload, bytes);
+                payload.clear().limit(bytes);
+                return true;
+            }
+
+            // Once the response is written, or the connection closed: gives the cost back and drops large buffers
+            void release(Budget budget) {
+                if (admitted) budget.release(cost);
+                admitted = false;
+                if (payload.capacity() > RETAIN_BYTES) payload = ByteBuffer.allocateDirect(0);
+                if (response.capacity() > RETAIN_BYTES) response = ByteBuffer.allocateDirect(0);
+            }
+
+            // Reads what is available, returns true once the whole request has arrived. Returns false with
+            // waiting() true when the request does not fit in the budget yet
+            boolean read(Budget budget) throws IOException {
+                if (header.hasRemaining()) {
+                    if (channel.read(header) < 0) throw new EOFException();
+                    if (header.hasRemaining()) return false;
+                    header.flip();
+                    if (header.getInt() != MAGIC) throw new IOException("Bad request magic");
+                    algorithm = header.getInt();
+                    M = header.getInt();
+                    K = header.getInt();
+                    N = header.getInt();
+                    bkSize = header.getInt();
+                    id = header.getLong();
+                    if (algorithm < 0 || algorithm >= ALGORITHMS.size() || M <= 0 || K <= 0 || N <= 0 || bkSize <= 0
+                            || (long) M * K + (long) K * N + (long) M * N > MAX_ELEMENTS)
+                        throw new IOException("Bad request header");
+                    cost = 2L * Double.BYTES * ((long) M * K + (long) K * N + (long) M * N);
+                    if (cost > budget.limit) throw new IOException("Request over the memory budget");
+                }
+                if (!admitted && !admit(budget)) return false;
+                if (channel.read(payload) < 0) throw new EOFException();
+                if (payload.hasRemaining()) return false;
+                received = System.nanoTime();
+                return true;
+            }
+
+            // Runs on a worker: multiplies the request and prepares the response
+            void process(ForkJoinPool pool) {
+                long started = System.nanoTime();
+                // Large requests get arrays of their own, so that the workers do not keep them after the request
+                double[][] workspace = (M * K + K * N + M * N) * Double.BYTES <= RETAIN_BYTES ? WORKSPACES.get() : new double[3][0];
+                if (workspace[0].length < M * K) workspace[0] = new double[M * K];
+                if (workspace[1].length < K * N) workspace[1] = new double[K * N];
+                if (workspace[2].length < M * N) workspace[2] = new double[M * N];
+                double[] pha = workspace[0], phb = workspace[1], phc = workspace[2];
+
+                payload.flip();
+                DoubleBuffer values = payload.asDoubleBuffer();
+                values.get(pha, 0, M * K).get(phb, 0, K * N);
+                Arrays.fill(phc, 0, M * N, 0);
+                int status = 0;
+                try {
+                    runKernel(ALGORITHMS.get(algorithm), pha, phb, phc, M, K, N, bkSize, pool);
+                } catch (RuntimeException exception) {
+                    status = 1;
+                }
+                long done = System.nanoTime();
+
+                int bytes = HEADER_BYTES + (status == 0 ? M * N * Double.BYTES : 0);
+                response = capacity(response, bytes);
+                response.clear();
+                response.putLong(id).putInt(status).putInt(0).putLong(started - received).putLong(done - started);
+                if (status == 0) response.asDoubleBuffer().put(phc, 0, M * N);
+                response.limit(bytes).position(0);
+                header.clear();
+            }
+
+            // Writes what the socket takes, returns true once the whole response is out
+            boolean write() throws IOException {
+                channel.write(response);
+                return !response.hasRemaining();
+            }
+
+            private static ByteBuffer capacity(ByteBuffer buffer, int bytes) {
+                return buffer.capacity() >= bytes ? buffer : ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+            }
+        }
+
+        // Entry point of "serve"
+        static void serve(Map<String, String> options) throws IOException {
+            int port = Integer.parseInt(options.getOrDefault("port", "9090"));
+            int workers = Integer.parseInt(options.getOrDefault("workers", String.valueOf(Runtime.getRuntime().availableProcessors())));
+            int threads = Integer.parseInt(options.getOrDefault("threads", String.valueOf(Runtime.getRuntime().availableProcessors())));
+            InetAddress bind = options.containsKey("bind") ? InetAddress.getByName(options.get("bind")) : InetAddress.getLoopbackAddress();
+            int maxSessions = Integer.parseInt(options.getOrDefault("sessions", "256"));
+            Budget budget = new Budget(options.containsKey("budget") ? Long.parseLong(options.get("budget")) << 20
+                    : Runtime.getRuntime().maxMemory() / 4);
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            ExecutorService executor = Executors.newFixedThreadPool(workers);
+
+            // Every kernel, on every worker, until the JIT has compiled it
+            System.out.println("Warming up the kernels...");
+            long Time1 = System.nanoTime();
+            List<Future<?>> warmups = new ArrayList<>();
+            for (int worker = 0; worker < workers; worker++) {
+                warmups.add(executor.submit(() -> {
+                    int dim = 96;
+                    double[] pha = new double[dim * dim], phb = new double[dim * dim], phc = new double[dim * dim];
+                    initMatrices(pha, phb, dim);
+                    for (int run = 0; run < 20; run++)
+                        for (String algorithm : ALGORITHMS)
+                            if (!algorithm.equals("strassen")) runKernel(algorithm, pha, phb, phc, dim, dim, dim, 32, pool);
+                }));
+            }
+            for (Future<?> warmup : warmups) {
+                try {
+                    warmup.get();
+                } catch (Exception exception) {
+                    throw new IllegalStateException("Warmup failed", exception);
+                }
+            }
+            System.out.printf("Warmup: %.3f seconds%n", (System.nanoTime() - Time1) / 1e9);
+
+            Queue<SelectionKey> responses = new ConcurrentLinkedQueue<>();
+            Queue<SelectionKey> deferred = new ArrayDeque<>();     // Headers read, waiting for the budget, in order
+            int sessions = 0;
+            try (Selector selector = Selector.open(); ServerSocketChannel server = ServerSocketChannel.open()) {
+                server.bind(new InetSocketAddress(bind, port));
+                server.configureBlocking(false);
+                server.register(selector, SelectionKey.OP_ACCEPT);
+                System.out.printf("Listening on %s port %d with %d workers and %d kernel threads, up to %d sessions and %d MB in flight%n",
+                        bind.getHostAddress(), port, workers, threads, maxSessions, budget.limit >> 20);
+
+                while (true) {
+                    selector.select();
+                    SelectionKey ready;
+                    while ((ready = responses.poll()) != null) {
+                        if (ready.isValid()) ready.interestOps(SelectionKey.OP_WRITE);
+                    }
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        if (key.isAcceptable()) {
+                            // A failed accept (out of file descriptors, reset before accept) loses that connection
+                            // only: the listener stays open
+                            SocketChannel channel = null;
+                            try {
+                                channel = server.accept();
+                                if (channel == null) continue;
+                                if (sessions >= maxSessions) {
+                                    channel.close();
+                                    continue;
+                                }
+                                channel.configureBlocking(false);
+                                channel.socket().setTcpNoDelay(true);
+                                channel.register(selector, SelectionKey.OP_READ, new Session(channel));
+                                sessions++;
+                            } catch (IOException exception) {
+                                System.out.println("Accept failed: " + exception.getMessage());
+                                if (channel != null) {
+                                    try {
+                                        channel.close();
+                                    } catch (IOException ignored) {
+                                        // Already failed, nothing left to release
+                                    }
+                                }
+                            }
+                            continue;
+                        }
+                        try {
+                            if (key.isReadable()) {
+                                Session session = (Session) key.attachment();
+                                if (session.read(budget)) {
+                                    key.interestOps(0);
+                                    executor.execute(() -> {
+                                        session.process(pool);
+                                        responses.add(key);
+                                        selector.wakeup();
+                                    });
+                                } else if (session.waiting()) {
+                                    key.interestOps(0);
+                                    deferred.add(key);
+                                }
+                            } else if (key.isWritable()) {
+                                Session session = (Session) key.attachment();
+                                if (session.write()) {
+                                    session.release(budget);
+                                    key.interestOps(SelectionKey.OP_READ);
+                                    admitDeferred(deferred, budget);
+                                }
+                            }
+                        } catch (IOException exception) {
+                            Session session = (Session) key.attachment();
+                            session.release(budget);
+                            sessions--;
+                            deferred.remove(key);
+                            key.cancel();
+                            key.channel().close();
+                            admitDeferred(deferred, budget);
+                        }
+                    }
+                }
+            } finally {
+                executor.shutdown();
+                pool.shutdown();
+            }
+        }
+
+        // Resumes the waiting requests, oldest first, while the budget has room for them
+        private static void admitDeferred(Queue<SelectionKey> deferred, Budget budget) {
+            SelectionKey key;
+            while ((key = deferred.peek()) != null) {
+                if (key.isValid()) {
+                    if (!((Session) key.attachment()).admit(budget)) return;
+                    key.interestOps(SelectionKey.OP_READ);
+                }
+                deferred.poll();
+            }
+        }
+
+        // Entry point of "serve-load": concurrent clients, each with its own connection, sending requests back to back.
+        // Reports the latency percentiles, the throughput and the server side queue and compute times
+        static void load(Map<String, String> options) throws Exception {
+            String host = options.getOrDefault("host", "localhost");
+            int port = Integer.parseInt(options.getOrDefault("port", "9090"));
+            int clients = Integer.parseInt(options.getOrDefault("clients", "8"));
+            int requests = Integer.parseInt(options.getOrDefault("requests", "50"));
+            int warmup = Integer.parseInt(options.getOrDefault("warmup", "5"));
+            int dim = Integer.parseInt(options.getOrDefault("dim", "256"));
+            String algorithm = options.getOrDefault("alg", "block");
+            int bkSize = Integer.parseInt(options.getOrDefault("block", "64"));
+            if (!ALGORITHMS.contains(algorithm)) throw new IllegalArgumentException("Unknown algorithm: " + algorithm);
+
+            ExecutorService executor = Executors.newFixedThreadPool(clients);
+            List<Future<long[][]>> results = new ArrayList<>();
+            long Time1 = System.nanoTime();
+            for (int client = 0; client < clients; client++) {
+                int seed = client;
+                results.add(executor.submit(() -> client(host, port, dim, ALGORITHMS.indexOf(algorithm), bkSize, warmup, requests, seed)));
+            }
+            List<Long> latencies = new ArrayList<>();
+            double queue = 0, compute = 0;
+            try {
+                for (Future<long[][]> result : results) {
+                    long[][] samples = result.get();
+                    for (long[] sample : samples) {
+                        latencies.add(sample[0]);
+                        queue += sample[1];
+                        compute += sample[2];
+                    }
+                }
+            } finally {
+                executor.shutdownNow();     // A refused connection must not leave the other clients running
+            }
+            long Time2 = System.nanoTime();
+
+            Collections.sort(latencies);
+            int count = latencies.size();
+            System.out.printf("Algorithm: %s, dimensions: %d, clients: %d, requests: %d (after %d warmup each)%n",
+                    algorithm, dim, clients, count, warmup);
+            for (double percentile : new double[]{50, 90, 99, 99.9}) {
+                long value = latencies.get(Math.min(count - 1, (int) Math.ceil(percentile / 100 * count) - 1));
+                System.out.printf("p%-5s %10.3f ms%n", percentile == 99.9 ? "99.9" : String.valueOf((int) percentile), value / 1e6);
+            }
+            System.out.printf("max    %10.3f ms%n", latencies.get(count - 1) / 1e6);
+            System.out.printf("Server queue: %.3f ms, compute: %.3f ms (averages)%n", queue / count / 1e6, compute / count / 1e6);
+            System.out.printf("Throughput: %.1f requests/s, %.3f GFLOP/s%n", count / ((Time2 - Time1) / 1e9),
+                    2.0 * dim * dim * dim * count / ((Time2 - Time1) / 1e9) / 1e9);
+        }
+
+        // One client connection: returns {latency, queue, compute} nanoseconds of every measured request.
+        // The first response is checked with Freivalds
+        private static long[][] client(String host, int port, int dim, int algorithm, int bkSize, int warmup, int requests,
+                                       int seed) throws IOException {
+            Random random = new Random(seed);
+            double[] pha = new double[dim * dim], phb = new double[dim * dim], phc = new double[dim * dim];
+            for (int i = 0; i < dim * dim; i++) {
+                pha[i] = random.nextDouble() * 2 - 1;
+                phb[i] = random.nextDouble() * 2 - 1;
+            }
+            long[][] samples = new long[requests][];
+            try (SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port))) {
+                channel.socket().setTcpNoDelay(true);
+                ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.nativeOrder());
+                for (int request = 0; request < warmup + requests; request++) {
+                    long Time1 = System.nanoTime();
+                    buffer.clear();
+                    buffer.putInt(MAGIC).putInt(algorithm).putInt(dim).putInt(dim).putInt(dim).putInt(bkSize).putLong(request);
+                    Summa.flush(channel, buffer);
+                    Summa.writeDoubles(channel, buffer, pha, 0, dim * dim);
+                    Summa.writeDoubles(channel, buffer, phb, 0, dim * dim);
+
+                    Summa.fill(channel, buffer, HEADER_BYTES);
+                    long id = buffer.getLong();
+                    int status = buffer.getInt();
+                    buffer.getInt();
+                    long queue = buffer.getLong(), compute = buffer.getLong();
+                    if (id != request || status != 0) throw new IOException("Request " + request + " failed");
+                    Summa.readDoubles(channel, buffer, phc, 0, dim * dim);
+                    long Time2 = System.nanoTime();
+
+                    if (request == 0 && !Verify.check(pha, phb, phc, dim, dim, dim))
+                        throw new IllegalStateException("Wrong result from the server");
+                    if (request >= warmup) samples[request - warmup] = new long[]{Time2 - Time1, queue, compute};
+                }
+            }
+            return samples;
+        }
+    }
+
+    // Blocked kernels specialized for one (M, K, N, block size) shape: the source of the loop nest is generated with
+    // every bound and stride as a literal, compiled in memory with javax.tools and defined as a hidden class, so the
+    // JIT sees constant trip counts and strides that it can unroll and fold. Full tiles get fixed-length loops, only
+    // the edge tiles (if any) keep a Math.min bound. Kernels are cached by shape and generated once per JVM
+    static final class Specializer {
+
+        private static final Map<String, MethodHandle> KERNELS = new ConcurrentHashMap<>();
+
+        // C (M x N) += A (M x K) * B (K x N) through the kernel of this shape, generated on the first call
+        static void multiply(double[] pha, double[] phb, double[] phc, int M, int K, int N, int bkSize) {
+            MethodHandle kernel = KERNELS.computeIfAbsent(M + "x" + K + "x" + N + "b" + bkSize, key -> generate(M, K, N, bkSize));
+            try {
+                kernel.invokeExact(pha, phb, phc);
+            } catch (RuntimeException | Error exception) {
+                throw exception;
+            } catch (Throwable throwable) {
+                throw new IllegalStateException(throwable);
+            }
+        }
+
+        // Source of the specialized loop nest, in the same ii, kk, jj order as kernelBlock
+        static String source(String name, int M, int K, int N, int bkSize) {
+            StringBuilder code = new StringBuilder();
+            code.append("public final class ").append(name).append(" {\n");
+            code.append("    public static void multiply(double[] a, double[] b, double[] c) {\n");
+            code.append(loop("ii", M, bkSize, "iEnd", 2));
+            code.append(loop("kk", K, bkSize, "kEnd", 3));
+            code.append(loop("jj", N, bkSize, "jEnd", 4));
+            code.append("                    for (int i = ii; i < iEnd; i++) {\n");
+            code.append("                        int cRow = i * ").append(N).append(";\n");
+            code.append("                        for (int k = kk; k < kEnd; k++) {\n");
+            code.append("                            double x = a[i * ").append(K).append(" + k];\n");
+            code.append("                            int bRow = k * ").append(N).append(";\n");
+            code.append("                            for (int j = jj; j < jEnd; j++) c[cRow + j] += x * b[bRow + j];\n");
+            code.append("                        }\n");
+            code.append("                    }\n");
+            code.append("                }\n            }\n        }\n    }\n}\n");
+            return code.toString();
+        }
+
+        // Tile loop over [0, size): "end" is a constant offset when bkSize divides size, clipped otherwise
+        private static String loop(String variable, int size, int bkSize, String end, int depth) {
+            String indent = "    ".repeat(depth);
+            String bound = size % bkSize == 0 ? variable + " + " + bkSize : "Math.min(" + variable + " + " + bkSize + ", " + size + ")";
+            return indent + "for (int " + variable + " = 0; " + variable + " < " + size + "; " + variable + " += " + bkSize + ") {\n"
+                    + indent + "    int " + end + " = " + bound + ";\n";
+        }
+
+        private static MethodHandle generate(int M, int K, int N, int bkSize) {
+            String name = "BlockKernel_" + M + "x" + K + "x" + N + "_" + bkSize;
+            long Time1 = System.nanoTime();
+            byte[] bytes = compile(name, source(name, M, K, N, bkSize));
+            try {
+                MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+                MethodHandle kernel = lookup.findStatic(lookup.lookupClass(), "multiply",
+                        MethodType.methodType(void.class, double[].class, double[].class, double[].class));
+                System.out.printf("# Generated %s in %.3f seconds%n", name, (System.nanoTime() - Time1) / 1e9);
+                return kernel;
+            } catch (ReflectiveOperationException exception) {
+                throw new IllegalStateException("Cannot load " + name, exception);
+            }
+        }
+
+        // Compiles one source file in memory and returns its class file
+        private static byte[] compile(String name, String source) {
+            JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+            if (compiler == null) throw new IllegalStateException("No Java compiler in this runtime, a JDK is needed");
+
+            ByteArrayOutputStream classFile = new ByteArrayOutputStream();
+            JavaFileObject input = new SimpleJavaFileObject(URI.create("string:///" + name + ".java"), JavaFileObject.Kind.SOURCE) {
+                @Override
+                public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                    return source;
+                }
+            };
+            StringWriter errors = new StringWriter();
+            try (StandardJavaFileManager standard = compiler.getStandardFileManager(null, null, null);
+                 JavaFileManager files = new ForwardingJavaFileManager<>(standard) {
+                     @Override
+                     public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind,
+                                                                FileObject sibling) {
+                         return new SimpleJavaFileObject(URI.create("bytes:///" + className + ".class"), kind) {
+                             @Override
+                             public OutputStream openOutputStream() {
+                                 return classFile;
+                             }
+                         };
+                     }
+                 }) {
+                if (!compiler.getTask(errors, files, null, List.of("-g:none"), null, List.of(input)).call())
+                    throw new IllegalStateException("Cannot compile " + name + ":\n" + errors);
+            } catch (IOException exception) {
+                throw new UncheckedIOException(exception);
+            }
+            return classFile.toByteArray();
+        }
+
+        // Entry point of the "specialized" mode: generic kernelBlock against the kernel generated for this shape
+        static void report(int dim, int bkSize) {
+            double[] pha = new double[dim * dim];
+            double[] phb = new double[dim * dim];
+            double[] phc = new double[dim * dim];
+            initMatrices(pha, phb, dim);
+
+            long Time1 = System.nanoTime();
+            Specializer.multiply(pha, phb, phc, dim, dim, dim, bkSize);
+            long Time2 = System.nanoTime();
+            System.out.printf("First call (generation and multiplication): %.3f seconds%n", (Time2 - Time1) / 1e9);
+
+            double generic = 0, specialized = 0;
+            for (int run = 0; run < RUNS; run++) {
+                Arrays.fill(phc, 0);
+                Time1 = System.nanoTime();
+                kernelBlock(pha, phb, phc, dim, dim, dim, bkSize);
+                Time2 = System.nanoTime();
+                generic += (Time2 - Time1) / 1e9;
+
+                Arrays.fill(phc, 0);
+                Time1 = System.nanoTime();
+                Specializer.multiply(pha, phb, phc, dim, dim, dim, bkSize);
+                Time2 = System.nanoTime();
+                specialized += (Time2 - Time1) / 1e9;
+            }
+            generic /= RUNS;
+            specialized /= RUNS;
+            double flops = 2.0 * dim * dim * dim;
+            System.out.printf("Generic block:     %.3f seconds (%.3f GFLOP/s)%n", generic, flops / generic / 1e9);
+            System.out.printf("Specialized block: %.3f seconds (%.3f GFLOP/s), speedup %.2f%n", specialized,
+                    flops / specialized / 1e9, generic / specialized);
+            System.out.println("Result Matrix: ");
+            for (int c = 0; c < Math.min(10, dim); c++) {
+                System.out.printf("%.2f ", phc[c]);
+            }
+            System.out.println();
+        }
+    }
+
+    // Lazy matrix expressions over the kernels, e.g. a.times(b).times(c).plus(d).evaluate(pool, 64). Building an
+    // expression computes nothing; evaluate() then:
+    //  - flattens every product chain and multiplies it in the order of least multiplications (chain order DP),
+    //  - fuses the scaled sums around a product into the write-back of its last multiplication, so each C tile is
+    //    accumulated in a tile buffer and written once as alpha * tile + sum of beta * term,
+    //  - reuses the arrays of the intermediate products that are no longer needed.
+    abstract static class Expr {
+
+        final int rows, cols;
+
+        Expr(int rows, int cols) {
+            this.rows = rows;
+            this.cols = cols;
+        }
+
+        Expr times(Expr other) {
+            if (this.cols != other.rows)
+                throw new IllegalArgumentException("Cannot multiply " + rows + "x" + cols + " by " + other.rows + "x" + other.cols);
+            List<Expr> factors = new ArrayList<>(factors(this));
+            factors.addAll(factors(other));
+            return new Product(factors);
+        }
+
+        Expr plus(Expr other) {
+            return combine(other, 1);
+        }
+
+        Expr minus(Expr other) {
+            return combine(other, -1);
+        }
+
+        Expr scale(double factor) {
+            Sum sum = terms(this);
+            double[] coefficients = sum.coefficients.clone();
+            for (int t = 0; t < coefficients.length; t++) coefficients[t] *= factor;
+            return new Sum(sum.terms, coefficients);
+        }
+
+        // Tiles of the fused multiplications are bkSize x bkSize
+        Matrix evaluate(ForkJoinPool pool, int bkSize) {
+            return new Evaluation(pool, bkSize).run(this);
+        }
+
+        // Plan of the evaluation, without running it
+        String explain() {
+            return Evaluation.describe(this);
+        }
+
+        private Expr combine(Expr other, double sign) {
+            if (this.rows != other.rows || this.cols != other.cols)
+                throw new IllegalArgumentException("Cannot add " + rows + "x" + cols + " and " + other.rows + "x" + other.cols);
+            Sum left = terms(this), right = terms(other);
+            List<Expr> terms = new ArrayList<>(left.terms);
+            terms.addAll(right.terms);
+            double[] coefficients = Arrays.copyOf(left.coefficients, terms.size());
+            for (int t = 0; t < right.terms.size(); t++) coefficients[left.terms.size() + t] = sign * right.coefficients[t];
+            return new Sum(terms, coefficients);
+        }
+
+        private static List<Expr> factors(Expr expr) {
+            return expr instanceof Product product ? product.factors : List.of(expr);
+        }
+
+        private static Sum terms(Expr expr) {
+            return expr instanceof Sum sum ? sum : new Sum(List.of(expr), new double[]{1});
+        }
+    }
+
+    static final class Matrix extends Expr {
+
+        final String name;
+        final double[] data;
+
+        Matrix(String name, int rows, int cols, double[] data) {
+            super(rows, cols);
+            if (data.length < rows * cols) throw new IllegalArgumentException(name + " needs " + rows * cols + " elements");
+            this.name = name;
+            this.data = data;
+        }
+    }
+
+    static final class Product extends Expr {
+
+        final List<Expr> factors;
+
+        Product(List<Expr> factors) {
+            super(factors.get(0).rows, factors.get(factors.size() - 1).cols);
+            this.factors = List.copyOf(factors);
+        }
+    }
+
+    static final class Sum extends Expr {
+
+        final List<Expr> terms;
+        final double[] coefficients;
+
+        Sum(List<Expr> terms, double[] coefficients) {
+            super(terms.get(0).rows, terms.get(0).cols);
+            this.terms = List.copyOf(terms);
+            this.coefficients = coefficients;
+        }
+    }
+
+    // One evaluation of an expression: free intermediate arrays, and the bytes allocated for them
+    static final class Evaluation {
+
+        private final ForkJoinPool pool;
+        private final int bkSize;
+        private final List<double[]> free = new ArrayList<>();
+        long temporaryBytes;                            // Bytes allocated for intermediate results
+
+        Evaluation(ForkJoinPool pool, int bkSize) {
+            this.pool = pool;
+            this.bkSize = bkSize;
+        }
+
+        // Value of expr in a new matrix, named after the plan of the whole expression
+        Matrix run(Expr expr) {
+            double[] out = new double[expr.rows * expr.cols];
+            into(expr, out);
+            return new Matrix("(" + describe(expr) + ")", expr.rows, expr.cols, out);
+        }
+
+        // Writes the value of expr into out (rows x cols), overwriting it
+        private void into(Expr expr, double[] out) {
+            if (expr instanceof Matrix matrix) {
+                System.arraycopy(matrix.data, 0, out, 0, expr.rows * expr.cols);
+            } else if (expr instanceof Product product) {
+                chainInto(product.factors, 1, new double[0], new double[0][], out);
+            } else {
+                Sum sum = (Sum) expr;
+                int fused = -1;
+                for (int t = 0; t < sum.terms.size() && fused < 0; t++) if (sum.terms.get(t) instanceof Product) fused = t;
+
+                // Every term other than the fused product is read element by element, so it has to be a matrix
+                int others = sum.terms.size() - (fused < 0 ? 0 : 1);
+                double[] coefficients = new double[others];
+                double[][] addends = new double[others][];
+                List<double[]> temporaries = new ArrayList<>();
+                for (int t = 0, a = 0; t < sum.terms.size(); t++) {
+                    if (t == fused) continue;
+                    coefficients[a] = sum.coefficients[t];
+                    addends[a++] = materialize(sum.terms.get(t), temporaries);
+                }
+                if (fused >= 0) {
+                    chainInto(((Product) sum.terms.get(fused)).factors, sum.coefficients[fused], coefficients, addends, out);
+                } else {
+                    int size = expr.rows * expr.cols;
+                    pool.invoke(new ParallelRows(0, expr.rows, 16, i -> {
+                        for (int j = i * expr.cols; j < (i + 1) * expr.cols && j < size; j++) {
+                            double value = 0;
+                            for (int a = 0; a < addends.length; a++) value += coefficients[a] * addends[a][j];
+                            out[j] = value;
+                        }
+                    }));
+                }
+                temporaries.forEach(this::release);
+            }
+        }
+
+        // Matrices are used in place, anything else is evaluated into a temporary (added to temporaries)
+        private double[] materialize(Expr expr, List<double[]> temporaries) {
+            if (expr instanceof Matrix matrix) return matrix.data;
+            double[] temporary = take(expr.rows * expr.cols);
+            into(expr, temporary);
+            temporaries.add(temporary);
+            return temporary;
+        }
+
+        // out = alpha * (F0 F1 ... Fn) + sum of coefficients[a] * addends[a], in the order found by chainOrder
+        private void chainInto(List<Expr> factors, double alpha, double[] coefficients, double[][] addends, double[] out) {
+            List<double[]> temporaries = new ArrayList<>();
+            double[][] data = new double[factors.size()][];
+            for (int f = 0; f < factors.size(); f++) data[f] = materialize(factors.get(f), temporaries);
+            int[][] split = chainOrder(factors);
+
+            int n = factors.size();
+            if (n == 1) {
+                Expr only = factors.get(0);
+                kernelFused(null, data[0], out, only.rows, 0, only.cols, alpha, coefficients, addends);
+            } else {
+                int k = split[0][n - 1];
+                double[] left = multiplyChain(factors, data, split, 0, k);
+                double[] right = multiplyChain(factors, data, split, k + 1, n - 1);
+                kernelFused(left, right, out, factors.get(0).rows, factors.get(k).cols, factors.get(n - 1).cols,
+                        alpha, coefficients, addends);
+                if (left != data[0]) release(left);
+                if (right != data[n - 1]) release(right);
+            }
+            temporaries.forEach(this::release);
+        }
+
+        // Product of factors i..j into a (reused) temporary, or the factor itself when i == j
+        private double[] multiplyChain(List<Expr> factors, double[][] data, int[][] split, int i, int j) {
+            if (i == j) return data[i];
+            int k = split[i][j];
+            double[] left = multiplyChain(factors, data, split, i, k);
+            double[] right = multiplyChain(factors, data, split, k + 1, j);
+            int M = factors.get(i).rows, K = factors.get(k).cols, N = factors.get(j).cols;
+            double[] product = take(M * N);
+            Arrays.fill(product, 0, M * N, 0);
+            kernelPacked(left, right, product, M, K, N);
+            if (left != data[i]) release(left);
+            if (right != data[j]) release(right);
+            return product;
+        }
+
+        // Matrix chain order: split[i][j] is the k of the cheapest (Fi..Fk)(Fk+1..Fj), by number of multiplications
+        private static int[][] chainOrder(List<Expr> factors) {
+            int n = factors.size();
+            long[][] cost = new long[n][n];
+            int[][] split = new int[n][n];
+            for (int length = 2; length <= n; length++) {
+                for (int i = 0; i + length - 1 < n; i++) {
+                    int j = i + length - 1;
+                    cost[i][j] = Long.MAX_VALUE;
+                    for (int k = i; k < j; k++) {
+                        long candidate = cost[i][k] + cost[k + 1][j]
+                                + (long) factors.get(i).rows * factors.get(k).cols * factors.get(j).cols;
+                        if (candidate < cost[i][j]) {
+                            cost[i][j] = candidate;
+                            split[i][j] = k;
+                        }
+                    }
+                }
+            }
+            return split;
+        }
+
+        private static String describe(Expr expr) {
+            if (expr instanceof Matrix matrix) return matrix.name;
+            if (expr instanceof Product product) {
+                int[][] split = chainOrder(product.factors);
+                return parenthesize(product.factors, split, 0, product.factors.size() - 1);
+            }
+            Sum sum = (Sum) expr;
+            StringBuilder text = new StringBuilder();
+            for (int t = 0; t < sum.terms.size(); t++) {
+                double coefficient = sum.coefficients[t];
+                text.append(t == 0 ? (coefficient < 0 ? "-" : "") : (coefficient < 0 ? " - " : " + "));
+                if (Math.abs(coefficient) != 1) text.append(Math.abs(coefficient)).append(" * ");
+                text.append(describe(sum.terms.get(t)));
+            }
+            return text.toString();
+        }
+
+        private static String parenthesize(List<Expr> factors, int[][] split, int i, int j) {
+            if (i == j) return describe(factors.get(i));
+            return "(" + parenthesize(factors, split, i, split[i][j]) + " " + parenthesize(factors, split, split[i][j] + 1, j) + ")";
+        }
+
+        // Smallest free array that fits, or a new one
+        private double[] take(int size) {
+            double[] best = null;
+            for (double[] candidate : free)
+                if (candidate.length >= size && (best == null || candidate.length < best.length)) best = candidate;
+            if (best != null) {
+                free.remove(best);
+                return best;
+            }
+            temporaryBytes += (long) size * Double.BYTES;
+            return new double[size];
+        }
+
+        private void release(double[] array) {
+            free.add(array);
+        }
+
+        // C (M x N) = alpha * A (M x K) * B (K x N) + sum of coefficients[a] * addends[a]. Each C tile is accumulated
+        // in a tile buffer over the whole K and then written once together with the element-wise terms.
+        // Rows of tiles are split between the workers. With A null, B is the only factor (C = alpha * B + ...)
+        private void kernelFused(double[] pha, double[] phb, double[] phc, int M, int K, int N, double alpha,
+                                 double[] coefficients, double[][] addends) {
+            pool.invoke(new ParallelRows(0, Math.ceilDiv(M, bkSize), 1, ti -> {
+                double[] tile = new double[bkSize * bkSize];
+                int ii = ti * bkSize, iEnd = Math.min(ii + bkSize, M);
+                for (int jj = 0; jj < N; jj += bkSize) {
+                    int jEnd = Math.min(jj + bkSize, N);
+                    if (pha == null) {
+                        for (int i = ii; i < iEnd; i++)
+                            System.arraycopy(phb, i * N + jj, tile, (i - ii) * bkSize, jEnd - jj);
+                    } else {
+                        Arrays.fill(tile, 0);
+                        for (int kk = 0; kk < K; kk += bkSize) {
+                            int kEnd = Math.min(kk + bkSize, K);
+                            for (int i = ii; i < iEnd; i++) {
+                                for (int k = kk; k < kEnd; k++) {
+                                    double a = pha[i * K + k];
+                                    for (int j = jj; j < jEnd; j++) {
+                                        tile[(i - ii) * bkSize + j - jj] += a * phb[k * N + j];
+                                    }
+                                }
+                            }
+                        }
+                    }
+                    for (int i = ii; i < iEnd; i++) {
+                        for (int j = jj; j < jEnd; j++) {
+                            double value = alpha * tile[(i - ii) * bkSize + j - jj];
+                            for (int a = 0; a < addends.length; a++) value += coefficients[a] * addends[a][i * N + j];
+                            phc[i * N + j] = value;
+                        }
+                    }
+                }
+            }));
+        }
+    }
+
+    // Entry point of the "expr" mode: A (n x n/10) B (n/10 x n) C (n x n/10) + D (n x n/10), evaluated eagerly from
+    // left to right with one new array per operation, and then through the lazy expression. Both are warmed up RUNS
+    // times and measured RUNS times. Allocation counts this thread and the pool workers, the threads of both paths.
+    // Intermediates are the arrays of the partial results: AB and ABC eagerly, Evaluation.temporaryBytes lazily
+    public static void expressionReport(int dim, int bkSize, int threads) {
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        int thin = Math.max(1, dim / 10);
+        Random random = new Random(7);
+        double[][] data = new double[4][];
+        int[][] shapes = {{dim, thin}, {thin, dim}, {dim, thin}, {dim, thin}};
+        for (int m = 0; m < 4; m++) {
+            data[m] = new double[shapes[m][0] * shapes[m][1]];
+            for (int i = 0; i < data[m].length; i++) data[m][i] = random.nextDouble() * 2 - 1;
+        }
+        Matrix a = new Matrix("A", dim, thin, data[0]), b = new Matrix("B", thin, dim, data[1]);
+        Matrix c = new Matrix("C", dim, thin, data[2]), d = new Matrix("D", dim, thin, data[3]);
+        Set<Thread> measured = ConcurrentHashMap.newKeySet();
+        measured.add(Thread.currentThread());
+        ForkJoinPool pool = new ForkJoinPool(threads, factory -> {
+            ForkJoinWorkerThread worker = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(factory);
+            measured.add(worker);
+            return worker;
+        }, null, false);
+        Expr expression = a.times(b).times(c).plus(d);
+
+        double[] eager = null;
+        Matrix lazy = null;
+        for (int run = 0; run < RUNS; run++) {
+            eager = eagerExpression(a, b, c, d);
+            lazy = expression.evaluate(pool, bkSize);
+        }
+        double eagerTotal = 0, lazyTotal = 0, eagerMin = Double.MAX_VALUE, lazyMin = Double.MAX_VALUE;
+        long eagerBytes = 0, lazyBytes = 0, lazyTemporaries = 0;
+        for (int run = 0; run < RUNS; run++) {
+            long allocated = allocatedBytes(threadBean, measured);
+            long Time1 = System.nanoTime();
+            eager = eagerExpression(a, b, c, d);
+            long Time2 = System.nanoTime();
+            eagerBytes += allocatedBytes(threadBean, measured) - allocated;
+            eagerTotal += (Time2 - Time1) / 1e9;
+            eagerMin = Math.min(eagerMin, (Time2 - Time1) / 1e9);
+
+            Evaluation evaluation = new Evaluation(pool, bkSize);
+            allocated = allocatedBytes(threadBean, measured);
+            long Time3 = System.nanoTime();
+            lazy = evaluation.run(expression);
+            long Time4 = System.nanoTime();
+            lazyBytes += allocatedBytes(threadBean, measured) - allocated;
+            lazyTemporaries += evaluation.temporaryBytes;
+            lazyTotal += (Time4 - Time3) / 1e9;
+            lazyMin = Math.min(lazyMin, (Time4 - Time3) / 1e9);
+        }
+        pool.shutdown();
+
+        double maxError = 0;
+        for (int i = 0; i < dim * thin; i++) maxError = Math.max(maxError, Math.abs(eager[i] - lazy.data[i]));
+        long eagerTemporaries = ((long) dim * dim + (long) dim * thin) * Double.BYTES;
+        System.out.printf("A: %dx%d, B: %dx%d, C: %dx%d, D: %dx%d, block: %d, threads: %d, runs: %d (after %d warmup)%n",
+                dim, thin, thin, dim, dim, thin, dim, thin, bkSize, threads, RUNS, RUNS);
+        System.out.printf("Eager ((A B) C) + D: %.3f seconds mean, %.3f min, %.1f MB allocated per run, %.1f MB of intermediates%n",
+                eagerTotal / RUNS, eagerMin, eagerBytes / 1e6 / RUNS, eagerTemporaries / 1e6);
+        System.out.printf("Lazy %s: %.3f seconds mean, %.3f min, %.1f MB allocated per run, %.1f MB of intermediates%n",
+                expression.explain(), lazyTotal / RUNS, lazyMin, lazyBytes / 1e6 / RUNS, lazyTemporaries / 1e6 / RUNS);
+        System.out.printf("Max abs difference: %.3e%n", maxError);
+    }
+
+    // ((A B) C) + D from left to right, one new array per operation
+    private static double[] eagerExpression(Matrix a, Matrix b, Matrix c, Matrix d) {
+        int dim = a.rows, thin = a.cols;
+        double[] ab = new double[dim * dim];
+        kernelPacked(a.data, b.data, ab, dim, thin, dim);
+        double[] abc = new double[dim * thin];
+        kernelPacked(ab, c.data, abc, dim, dim, thin);
+        double[] eager = new double[dim * thin];
+        for (int i = 0; i < dim * thin; i++) eager[i] = abc[i] + d.data[i];
+        return eager;
+    }
+
+    // Bytes allocated so far by the threads, including the ones that have terminated since they were added
+    private static long allocatedBytes(com.sun.management.ThreadMXBean threadBean, Set<Thread> threads) {
+        long bytes = 0;
+        for (Thread thread : threads) bytes += Math.max(0, threadBean.getThreadAllocatedBytes(thread.threadId()));
+        return bytes;
+    }
+
+    // Roofline model of the OnMult* kernels: the host roofs are measured with two micro-benchmarks (vector FMA
+    // throughput for the peak FLOP/s, a STREAM triad for the memory bandwidth), with one thread and with all of them.
+    // The memory traffic of each kernel is modelled from its loop order and the last-level cache size, the same
+    // reasoning as the block sizes: a matrix that fits in the cache is read once, otherwise it is read again for
+    // every reuse the loops cannot keep in cache. Arithmetic intensity = FLOPs / modelled bytes
+    static final class Roofline {
+
+        static final String[] KERNELS = {"mult", "line", "line-vector", "transposed", "block", "recursive", "packed", "block-parallel"};
+
+        record Roofs(double peakFlops, double bandwidth) {
+
+            // Arithmetic intensity where the kernel stops being memory bound
+            double ridge() {
+                return peakFlops / bandwidth;
+            }
+
+            double attainable(double intensity) {
+                return Math.min(peakFlops, intensity * bandwidth);
+            }
+        }
+
+        record Point(String algorithm, double seconds, double flops, double bytes, Roofs roofs) {
+
+            double intensity() {
+                return flops / bytes;
+            }
+
+            double achieved() {
+                return flops / seconds;
+            }
+        }
+
+        // FLOP/s of independent FMA chains over SPECIES vectors, on each of the workers at the same time
+        static double peakFlops(ForkJoinPool pool, int workers) {
+            long iterations = 20_000_000;
+            double best = 0;
+            for (int run = 0; run < RUNS; run++) {
+                long Time1 = System.nanoTime();
+                double[] sinks = new double[workers];
+                pool.invoke(new ParallelRows(0, workers, 1, worker -> sinks[worker] = fmaChains(iterations)));
+                long Time2 = System.nanoTime();
+                if (Double.isNaN(Arrays.stream(sinks).sum())) System.out.println("NaN");
+                best = Math.max(best, 2.0 * 8 * SPECIES.length() * iterations * workers / ((Time2 - Time1) / 1e9));
+            }
+            return best;
+        }
+
+        // Eight accumulators hide the FMA latency (4 cycles, two ports on recent cores)
+        private static double fmaChains(long iterations) {
+            DoubleVector x = DoubleVector.broadcast(SPECIES, 0.999999), y = DoubleVector.broadcast(SPECIES, 1e-9);
+            DoubleVector c0 = DoubleVector.broadcast(SPECIES, 1), c1 = c0, c2 = c0, c3 = c0, c4 = c0, c5 = c0, c6 = c0, c7 = c0;
+            for (long i = 0; i < iterations; i++) {
+                c0 = c0.fma(x, y); c1 = c1.fma(x, y); c2 = c2.fma(x, y); c3 = c3.fma(x, y);
+                c4 = c4.fma(x, y); c5 = c5.fma(x, y); c6 = c6.fma(x, y); c7 = c7.fma(x, y);
+            }
+            return c0.add(c1).add(c2).add(c3).add(c4).add(c5).add(c6).add(c7).reduceLanes(VectorOperators.ADD);
+        }
+
+        // STREAM triad a = b + s * c over arrays four times the size of the last-level cache (or as large as a
+        // quarter of the heap allows each), chunks of the arrays split between the workers. Bytes counted as in
+        // STREAM: two reads and one write per element
+        static double bandwidth(ForkJoinPool pool, int workers, long cache) {
+            long wanted = Math.max(1 << 22, 4 * cache / Double.BYTES);
+            int length = (int) Math.min(Math.min(wanted, Runtime.getRuntime().maxMemory() / 4 / Double.BYTES), Integer.MAX_VALUE - 8);
+            if (3L * length * Double.BYTES <= cache)
+                System.out.println("Warning: the triad arrays fit in the last-level cache (raise -Xmx), bandwidth is overestimated");
+            int chunk = 1 << 16, chunks = Math.ceilDiv(length, chunk);
+            double[] a = new double[length], b = new double[length], c = new double[length];
+            pool.invoke(new ParallelRows(0, chunks, 1, part -> {
+                for (int i = part * chunk; i < Math.min(length, (part + 1) * chunk); i++) {
+                    b[i] = 1;
+                    c[i] = 2;
+                }
+            }));
+            double best = 0;
+            for (int run = 0; run < RUNS; run++) {
+                long Time1 = System.nanoTime();
+                if (workers == 1) {
+                    for (int i = 0; i < length; i++) a[i] = b[i] + 3 * c[i];
+                } else {
+                    pool.invoke(new ParallelRows(0, chunks, 1, part -> {
+                        for (int i = part * chunk; i < Math.min(length, (part + 1) * chunk); i++) a[i] = b[i] + 3 * c[i];
+                    }));
+                }
+                long Time2 = System.nanoTime();
+                best = Math.max(best, 3.0 * Double.BYTES * length / ((Time2 - Time1) / 1e9));
+            }
+            return best;
+        }
+
+        // Modelled DRAM bytes of one M x K x N product, for a last-level cache of cache bytes
+        static double bytes(String algorithm, int M, int K, int N, int bkSize, long cache) {
+            double words = cache / (double) Double.BYTES;
+            double a = (double) M * K, b = (double) K * N, c = (double) M * N;
+            double compulsory = a + b + 2 * c;             // C is read (accumulated into) and written
+            if (a + b + c <= words) return Double.BYTES * compulsory;
+            double traffic = switch (algorithm) {
+                // B is walked once per row of C (by columns for mult), unless it stays in the cache
+                case "mult", "line", "line-vector" -> a + 2 * c + (b <= words / 2 ? b : M * b);
+                case "transposed" -> a + 2 * c + 2 * b + (b <= words / 2 ? b : M * b);
+                // Per (ii, kk): the A tile stays, the bk x N rows of B stream, and the bk x N rows of C stay if they fit
+                case "block", "block-parallel" -> a + (b <= words / 2 ? b : b * Math.ceilDiv(M, bkSize))
+                        + (2.0 * bkSize * N <= words / 2 ? 2 * c : 2 * c * Math.ceilDiv(K, bkSize));
+                // Halving stops in cache once the three t x t sub-matrices fit: 3 t^2 words per t^3 multiply-adds
+                case "recursive" -> Math.max(compulsory, 3.0 * M * K * N / Math.sqrt(words / 3));
+                // A is packed once per NC panel of B, B once, C updated once per KC slice
+                case "packed" -> a * Math.ceilDiv(N, PackedGemm.NC) + b + 2 * c * Math.ceilDiv(K, PackedGemm.KC);
+                default -> throw new IllegalArgumentException("No traffic model for " + algorithm);
+            };
+            return Double.BYTES * Math.max(compulsory, traffic);
+        }
+
+        // Entry point of the "roofline" mode
+        static void report(int dim, int bkSize, int threads, String svgFile) throws IOException {
+            long cache = Autotuner.cacheSizes().values().stream().mapToLong(Long::longValue).max().orElse(8L << 20);
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            Roofs single = new Roofs(peakFlops(pool, 1), bandwidth(pool, 1, cache));
+            Roofs all = new Roofs(peakFlops(pool, threads), bandwidth(pool, threads, cache));
+            System.out.printf("Last-level cache: %d KB, %d lanes per vector%n", cache / 1024, SPECIES.length());
+            System.out.printf("1 thread:   peak %.2f GFLOP/s, bandwidth %.2f GB/s, ridge %.2f FLOP/byte%n",
+                    single.peakFlops / 1e9, single.bandwidth / 1e9, single.ridge());
+            System.out.printf("%d threads: peak %.2f GFLOP/s, bandwidth %.2f GB/s, ridge %.2f FLOP/byte%n",
+                    threads, all.peakFlops / 1e9, all.bandwidth / 1e9, all.ridge());
+
+            double[] pha = new double[dim * dim], phb = new double[dim * dim], phc = new double[dim * dim];
+            initMatrices(pha, phb, dim);
+            int small = Math.min(dim, 256);
+            double[] warmA = new double[small * small], warmB = new double[small * small], warmC = new double[small * small];
+            initMatrices(warmA, warmB, small);
+
+            List<Point> points = new ArrayList<>();
+            double flops = 2.0 * dim * dim * dim;
+            for (String algorithm : KERNELS) {
+                runKernel(algorithm, warmA, warmB, warmC, small, small, small, bkSize, pool);
+                Arrays.fill(phc, 0);
+                long Time1 = System.nanoTime();
+                runKernel(algorithm, pha, phb, phc, dim, dim, dim, bkSize, pool);
+                long Time2 = System.nanoTime();
+                points.add(new Point(algorithm, (Time2 - Time1) / 1e9, flops, bytes(algorithm, dim, dim, dim, bkSize, cache),
+                        algorithm.equals("block-parallel") ? all : single));
+            }
+            pool.shutdown();
+
+            System.out.printf("%-15s %10s %10s %12s %10s %10s %8s  %s%n", "Kernel", "Seconds", "GFLOP/s", "Bytes (model)",
+                    "FLOP/byte", "Roof", "Of roof", "Bound");
+            for (Point point : points) {
+                double roof = point.roofs.attainable(point.intensity());
+                System.out.printf("%-15s %10.3f %10.3f %12.3e %10.2f %10.3f %7.1f%%  %s%n", point.algorithm, point.seconds,
+                        point.achieved() / 1e9, point.bytes, point.intensity(), roof / 1e9, 100 * point.achieved() / roof,
+                        point.intensity() < point.roofs.ridge() ? "memory" : "compute");
+            }
+
+            Files.writeString(Path.of(svgFile), svg(points, List.of(single, all), List.of("1 thread", threads + " threads")));
+            System.out.println("Roofline plot written to " + svgFile);
+        }
+
+        // Log-log plot: FLOP/byte against GFLOP/s, one roof per thread count and one point per kernel
+        static String svg(List<Point> points, List<Roofs> roofs, List<String> labels) {
+            int width = 760, height = 500, left = 70, right = 160, top = 30, bottom = 50;
+            double xMin = 1.0 / 16, xMax = 64, yMin = 0.01, yMax = 1;
+            for (Roofs roof : roofs) yMax = Math.max(yMax, roof.peakFlops / 1e9);
+            for (Point point : points) {
+                xMin = Math.min(xMin, point.intensity());
+                xMax = Math.max(xMax, point.intensity());
+                yMin = Math.min(yMin, point.achieved() / 1e9);
+            }
+            double x0 = Math.floor(Math.log(xMin) / Math.log(2)), x1 = Math.ceil(Math.log(xMax) / Math.log(2));
+            double y0 = Math.floor(Math.log10(yMin)), y1 = Math.ceil(Math.log10(yMax * 2));
+            DoubleUnaryOperator px = value -> left + (Math.log(value) / Math.log(2) - x0) / (x1 - x0) * (width - left - right);
+            DoubleUnaryOperator py = value -> height - bottom - (Math.log10(value) - y0) / (y1 - y0) * (height - top - bottom);
+
+            StringBuilder svg = new StringBuilder();
+            svg.append(String.format("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"%d\" height=\"%d\" font-family=\"sans-serif\" font-size=\"12\">%n", width, height));
+            svg.append(String.format("<rect width=\"%d\" height=\"%d\" fill=\"white\"/>%n", width, height));
+            for (double e = x0; e <= x1; e++) {
+                double x = px.applyAsDouble(Math.pow(2, e));
+                svg.append(String.format(Locale.ROOT, "<line x1=\"%.1f\" y1=\"%d\" x2=\"%.1f\" y2=\"%d\" stroke=\"#ddd\"/>%n", x, top, x, height - bottom));
+                svg.append(String.format(Locale.ROOT, "<text x=\"%.1f\" y=\"%d\" text-anchor=\"middle\">%s</text>%n", x, height - bottom + 16,
+                        e < 0 ? "1/" + (int) Math.pow(2, -e) : String.valueOf((int) Math.pow(2, e))));
+            }
+            for (double e = y0; e <= y1; e++) {
+                double y = py.applyAsDouble(Math.pow(10, e));
+                svg.append(String.format(Locale.ROOT, "<line x1=\"%d\" y1=\"%.1f\" x2=\"%d\" y2=\"%.1f\" stroke=\"#ddd\"/>%n", left, y, width - right, y));
+                svg.append(String.format(Locale.ROOT, "<text x=\"%d\" y=\"%.1f\" text-anchor=\"end\">%s</text>%n", left - 6, y + 4,
+                        e < 0 ? String.valueOf(Math.pow(10, e)) : String.valueOf((long) Math.pow(10, e))));
+            }
+            svg.append(String.format("<text x=\"%d\" y=\"%d\" text-anchor=\"middle\">Arithmetic intensity (FLOP/byte, modelled)</text>%n",
+                    (left + width - right) / 2, height - 12));
+            svg.append(String.format("<text x=\"16\" y=\"%d\" text-anchor=\"middle\" transform=\"rotate(-90 16 %d)\">GFLOP/s</text>%n",
+                    (top + height - bottom) / 2, (top + height - bottom) / 2));
+
+            String[] colours = {"#1f77b4", "#d62728"};
+            for (int r = 0; r < roofs.size(); r++) {
+                Roofs roof = roofs.get(r);
+                double start = Math.pow(2, x0), end = Math.pow(2, x1), ridge = roof.ridge();
+                StringBuilder line = new StringBuilder();
+                for (double x : new double[]{start, Math.min(Math.max(ridge, start), end), end})
+                    line.append(String.format(Locale.ROOT, "%.1f,%.1f ", px.applyAsDouble(x), py.applyAsDouble(roof.attainable(x) / 1e9)));
+                svg.append(String.format("<polyline points=\"%s\" fill=\"none\" stroke=\"%s\" stroke-width=\"2\"/>%n", line.toString().trim(), colours[r % 2]));
+                svg.append(String.format(Locale.ROOT, "<text x=\"%d\" y=\"%.1f\" fill=\"%s\">%s</text>%n", width - right + 6,
+                        py.applyAsDouble(roof.peakFlops / 1e9) + 4, colours[r % 2], labels.get(r)));
+            }
+            for (Point point : points) {
+                double x = px.applyAsDouble(point.intensity()), y = py.applyAsDouble(point.achieved() / 1e9);
+                String colour = colours[roofs.indexOf(point.roofs) % 2];
+                svg.append(String.format(Locale.ROOT, "<circle cx=\"%.1f\" cy=\"%.1f\" r=\"4\" fill=\"%s\"/>%n", x, y, colour));
+                svg.append(String.format(Locale.ROOT, "<text x=\"%.1f\" y=\"%.1f\">%s</text>%n", x + 6, y - 6, point.algorithm));
+            }
+            svg.append("</svg>\n");
+            return svg.toString();
+        }
+    }
+
+    // Benchmark harness: warmup and measurement iterations, each trial in its own JVM fork (as in JMH)
+    // so that JIT profiles and heap state from one configuration do not leak into the next one
+    private static final class Benchmark {
+
+        private static final String DEFAULT_DIMS = "600,1000,1400,1800,2200,2600,3000";
+        private static final String DEFAULT_BLOCKS = "128,256,512";
+        private static final String DEFAULT_ALGS = "mult,line,block,transposed,recursive";
+        private static final String DEFAULT_BATCHES = "1,16,256,4096";
+        private static final String DEFAULT_BATCHED_DIMS = "16,32,64,128,256";  // Small matrices, as BatchedGemm
+
+        // Parses "key=value" options, starting at args[from]
+        static Map<String, String> parseOptions(String[] args, int from) {
+            Map<String, String> options = new HashMap<>();
+            for (int i = from; i < args.length; i++) {
+                int separator = args[i].indexOf('=');
+                if (separator < 0) throw new IllegalArgumentException("Expected key=value, got: " + args[i]);
+                options.put(args[i].substring(0, separator), args[i].substring(separator + 1));
+            }
+            return options;
+        }
+
+        static int[] parseList(String list) {
+            return Arrays.stream(list.split(",")).map(String::trim).mapToInt(Integer::parseInt).toArray();
+        }
+
+        // Algorithms parameterized by the block size
+        static boolean isBlocked(String algorithm) {
+            return algorithm.startsWith("block") || algorithm.equals("strassen");
+        }
+
+        // Parses "MxKxN" shapes (A is M x K, B is K x N), e.g. "1000x64x1000,64x4096x64"
+        static int[][] parseShapes(String list) {
+            return Arrays.stream(list.split(",")).map(String::trim).map(shape -> {
+                int[] mkn = Arrays.stream(shape.split("x")).mapToInt(Integer::parseInt).toArray();
+                if (mkn.length != 3) throw new IllegalArgumentException("Expected MxKxN, got: " + shape);
+                return mkn;
+            }).toArray(int[][]::new);
+        }
+
+        // Bytes of A, B and C for batch products of the shape
+        static long footprint(int M, int K, int N, int batch) {
+            return (long) Double.BYTES * batch * ((long) M * K + (long) K * N + (long) M * N);
+        }
+
+        // Largest footprint a trial may take: half of the heap (the forks run with the same flags), and every
+        // matrix has to fit in one Java array
+        static boolean fits(int M, int K, int N, int batch) {
+            long largest = (long) batch * Math.max((long) M * K, Math.max((long) K * N, (long) M * N));
+            return largest <= Integer.MAX_VALUE - 8 && footprint(M, K, N, batch) <= Runtime.getRuntime().maxMemory() / 2;
+        }
+
+        static String shapeName(int M, int K, int N) {
+            return M == K && K == N ? String.valueOf(M) : M + "x" + K + "x" + N;
+        }
+
+        // Command that relaunches this JVM (same flags and source file) with other program arguments
+        static List<String> forkCommand(String[] mainArgs) {
+            ProcessHandle.Info info = ProcessHandle.current().info();
+            String[] arguments = info.arguments().orElseThrow(() -> new IllegalStateException("Cannot read JVM arguments to fork, use forks=0"));
+            List<String> command = new ArrayList<>();
+            command.add(info.command().orElse("java"));
+            command.addAll(Arrays.asList(arguments).subList(0, arguments.length - mainArgs.length));
+            return command;
+        }
+
+        // Entry point of "bench": runs every (algorithm, shape, block size) combination.
+        // Shapes are the square dims plus the rectangular MxKxN shapes, if any
+        static void run(String[] mainArgs, Map<String, String> options) throws Exception {
+            printSpecies();
+            List<int[]> shapes = new ArrayList<>();
+            if (!options.containsKey("shapes") || options.containsKey("dims")) {
+                for (int dim : parseList(options.getOrDefault("dims", DEFAULT_DIMS))) shapes.add(new int[]{dim, dim, dim});
+            }
+            if (options.containsKey("shapes")) shapes.addAll(Arrays.asList(parseShapes(options.get("shapes"))));
+            // Without explicit dims or shapes, "batched" runs its own small shapes instead of the large default dims
+            List<int[]> batchedShapes = shapes;
+            if (!options.containsKey("shapes") && !options.containsKey("dims")) {
+                batchedShapes = new ArrayList<>();
+                for (int dim : parseList(DEFAULT_BATCHED_DIMS)) batchedShapes.add(new int[]{dim, dim, dim});
+            }
+            int[] blocks = parseList(options.getOrDefault("blocks", DEFAULT_BLOCKS));
+            int[] batches = parseList(options.getOrDefault("batches", DEFAULT_BATCHES));
+            String[] algorithms = options.getOrDefault("algs", DEFAULT_ALGS).split(",");
+            int warmup = Integer.parseInt(options.getOrDefault("warmup", "3"));
+            int iterations = Integer.parseInt(options.getOrDefault("iterations", "5"));
+            int forks = Integer.parseInt(options.getOrDefault("forks", "1"));
+            int threads = Integer.parseInt(options.getOrDefault("threads", String.valueOf(Runtime.getRuntime().availableProcessors())));
+            Path out = options.containsKey("out") ? Path.of(options.get("out")) : null;
+
+            List<String> report = new ArrayList<>();
+            report.add(String.format("%-16s %16s %6s %6s %8s %5s %12s %12s %9s %12s %12s",
+                    "Benchmark", "Shape", "Block", "Batch", "Threads", "Cnt", "ops/s", "Error", "GFLOP/s", "Alloc MB/s", "Alloc B/op"));
+
+            for (String algorithm : algorithms) {
+                for (int[] shape : algorithm.equals("batched") ? batchedShapes : shapes) {
+                    int M = shape[0], K = shape[1], N = shape[2];
+                    if (algorithm.equals("strassen") && (M != K || K != N)) {
+                        System.out.printf("# Skipping %s, shape %s is not square%n", algorithm, shapeName(M, K, N));
+                        continue;
+                    }
+                    for (int bkSize : isBlocked(algorithm) ? blocks : new int[]{0}) {
+                        for (int batch : algorithm.equals("batched") ? batches : new int[]{1}) {
+                            if (!fits(M, K, N, batch)) {
+                                System.out.printf("# Skipping %s, shape %s, batch %d: %d MB of matrices, over the budget of half the heap (%d MB)%n",
+                                        algorithm, shapeName(M, K, N), batch, footprint(M, K, N, batch) >> 20,
+                                        Runtime.getRuntime().maxMemory() >> 21);
+                                continue;
+                            }
+                            System.out.printf("# Benchmark: %s, shape %s, block size %d, batch %d, threads %d%n",
+                                    algorithm, shapeName(M, K, N), bkSize, batch, threads);
+
+                            List<double[]> samples = new ArrayList<>();
+                            if (forks == 0) {
+                                samples.add(trial(algorithm, M, K, N, bkSize, batch, threads, warmup, iterations));
+                            } else {
+                                for (int fork = 1; fork <= forks; fork++) {
+                                    System.out.printf("# Fork: %d of %d%n", fork, forks);
+                                    samples.add(fork(mainArgs, algorithm, M, K, N, bkSize, batch, threads, warmup, iterations));
+                                }
+                            }
+                            report.add(summarize(algorithm, M, K, N, bkSize, batch, threads, samples));
+                            if (out != null) Results.append(out, records(algorithm, M, K, N, bkSize, batch, threads, samples));
+                        }
+                    }
+                }
+            }
+
+            System.out.println();
+            report.forEach(System.out::println);
+        }
+
+        // Runs one trial in a child JVM and parses its RESULT line
+        private static double[] fork(String[] mainArgs, String algorithm, int M, int K, int N, int bkSize, int batch,
+                                     int threads, int warmup, int iterations) throws Exception {
+            List<String> command = forkCommand(mainArgs);
+            command.addAll(List.of("bench-fork", algorithm, String.valueOf(M), String.valueOf(K), String.valueOf(N), String.valueOf(bkSize),
+                    String.valueOf(batch), String.valueOf(threads), String.valueOf(warmup), String.valueOf(iterations)));
+
+            Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+            double[] result = null;
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.startsWith("RESULT ")) {
+                        result = Arrays.stream(line.substring(7).split(" ")).mapToDouble(Double::parseDouble).toArray();
+                    } else {
+                        System.out.println(line);
+                    }
+                }
+            }
+            if (process.waitFor() != 0 || result == null)
+                throw new IllegalStateException("Benchmark fork failed for " + algorithm + " " + shapeName(M, K, N));
+            return result;
+        }
+
+        // Entry point of "bench-fork": one trial, printed as "RESULT t1 a1 t2 a2 ..." (seconds, allocated bytes)
+        static void forked(String[] args) {
+            double[] result = trial(args[1], Integer.parseInt(args[2]), Integer.parseInt(args[3]), Integer.parseInt(args[4]),
+                    Integer.parseInt(args[5]), Integer.parseInt(args[6]), Integer.parseInt(args[7]), Integer.parseInt(args[8]),
+                    Integer.parseInt(args[9]));
+            StringBuilder line = new StringBuilder("RESULT");
+            for (double value : result) line.append(' ').append(value);
+            System.out.println(line);
+        }
+
+        // Measures the kernel only: matrices are set up once per trial and C is reset outside the timed region.
+        // "batched" multiplies batch copies of the shape per operation, any other algorithm a single product
+        static double[] trial(String algorithm, int M, int K, int N, int bkSize, int batch, int threads, int warmup, int iterations) {
+            com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            if (!fits(M, K, N, batch))
+                throw new IllegalArgumentException("Matrices of " + algorithm + " " + shapeName(M, K, N) + ", batch " + batch
+                        + " take " + (footprint(M, K, N, batch) >> 20) + " MB, over the budget of half the heap");
+            // Sizes and offsets in long first: within the budget, every one of them fits in an int
+            int sizeA = Math.toIntExact((long) M * K), sizeB = Math.toIntExact((long) K * N), sizeC = Math.toIntExact((long) M * N);
+            double[] pha = new double[Math.toIntExact((long) batch * sizeA)];
+            double[] phb = new double[Math.toIntExact((long) batch * sizeB)];
+            double[] phc = new double[Math.toIntExact((long) batch * sizeC)];
+            initMatrices(pha, phb, M, K, N);
+            for (int b = 1; b < batch; b++) {
+                System.arraycopy(pha, 0, pha, Math.toIntExact((long) b * sizeA), sizeA);
+                System.arraycopy(phb, 0, phb, Math.toIntExact((long) b * sizeB), sizeB);
+            }
+            BatchedGemm batchedGemm = algorithm.equals("batched") ? new BatchedGemm(M, K, N) : null;
+
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            double[] result = new double[2 * iterations];
+            try {
+                for (int i = 1; i <= warmup + iterations; i++) {
+                    Arrays.fill(phc, 0);
+
+                    long allocated = threadBean.getTotalThreadAllocatedBytes();
+                    long Time1 = System.nanoTime();
+                    if (batchedGemm != null) batchedGemm.multiply(pha, phb, phc, batch, pool);
+                    else runKernel(algorithm, pha, phb, phc, M, K, N, bkSize, pool);
+                    long Time2 = System.nanoTime();
+                    allocated = threadBean.getTotalThreadAllocatedBytes() - allocated;
+
+                    double seconds = (Time2 - Time1) / 1e9;
+                    boolean warming = i <= warmup;
+                    System.out.printf("# %s Iteration %d: %.3f ops/s%n", warming ? "Warmup" : "Measurement",
+                            warming ? i : i - warmup, 1 / seconds);
+                    if (!warming) {
+                        result[2 * (i - warmup - 1)] = seconds;
+                        result[2 * (i - warmup - 1) + 1] = allocated;
+                    }
+                }
+            } finally {
+                pool.shutdown();
+            }
+
+            // The last product is checked outside the timed region, every matrix of the batch in O(n^2)
+            for (int b = 0; b < batch; b++) {
+                double[] a = batch == 1 ? pha : Arrays.copyOfRange(pha, Math.toIntExact((long) b * sizeA), Math.toIntExact((long) (b + 1) * sizeA));
+                double[] bm = batch == 1 ? phb : Arrays.copyOfRange(phb, Math.toIntExact((long) b * sizeB), Math.toIntExact((long) (b + 1) * sizeB));
+                double[] c = batch == 1 ? phc : Arrays.copyOfRange(phc, Math.toIntExact((long) b * sizeC), Math.toIntExact((long) (b + 1) * sizeC));
+                if (!Verify.check(a, bm, c, M, K, N))
+                    throw new IllegalStateException("Wrong result: " + algorithm + " " + shapeName(M, K, N) + ", matrix " + b + " of the batch");
+            }
+            return result;
+        }
+
+        // One record per measured iteration, forks and iterations are numbered from 1
+        private static List<Map<String, Object>> records(String algorithm, int M, int K, int N, int bkSize, int batch,
+                                                         int threads, List<double[]> samples) {
+            List<Map<String, Object>> records = new ArrayList<>();
+            for (int fork = 0; fork < samples.size(); fork++) {
+                double[] sample = samples.get(fork);
+                for (int i = 0; i < sample.length; i += 2) {
+                    Map<String, Object> record = Results.record(algorithm, M, K, N, bkSize, batch, threads);
+                    record.put("fork", fork + 1);
+                    record.put("iteration", i / 2 + 1);
+                    record.put("seconds", sample[i]);
+                    record.put("gflops", 2.0 * M * K * N * batch / sample[i] / 1e9);
+                    record.put("alloc_bytes", (long) sample[i + 1]);
+                    records.add(record);
+                }
+            }
+            return records;
+        }
+
+        private static String summarize(String algorithm, int M, int K, int N, int bkSize, int batch, int threads,
+                                        List<double[]> samples) {
+            List<Double> opsPerSecond = new ArrayList<>();
+            double totalTime = 0, totalAllocated = 0;
+            for (double[] sample : samples) {
+                for (int i = 0; i < sample.length; i += 2) {
+                    opsPerSecond.add(1 / sample[i]);
+                    totalTime += sample[i];
+                    totalAllocated += sample[i + 1];
+                }
+            }
+
+            int count = opsPerSecond.size();
+            double mean = opsPerSecond.stream().mapToDouble(Double::doubleValue).average().orElse(0);
+            double variance = opsPerSecond.stream().mapToDouble(x -> (x - mean) * (x - mean)).sum() / Math.max(1, count - 1);
+            double flops = 2.0 * M * K * N * batch;
+
+            return String.format("%-16s %16s %6s %6s %8d %5d %12.4f %12.4f %9.3f %12.3f %12.0f",
+                    algorithm, shapeName(M, K, N), bkSize == 0 ? "-" : String.valueOf(bkSize),
+                    algorithm.equals("batched") ? String.valueOf(batch) : "-", threads, count, mean, Math.sqrt(variance),
+                    flops * mean / 1e9, totalAllocated / totalTime / 1e6, totalAllocated / count);
+        }
+    }
+
+    // Structured results: one record per measured iteration, appended as CSV (".csv" files, with a header when the
+    // file is new) or as JSON lines (any other file), and the comparator that gates kernel changes on them
+    static final class Results {
+
+        // Fields that identify a configuration, records with the same values are samples of the same benchmark
+        static final List<String> KEY = List.of("algorithm", "m", "k", "n", "block", "batch", "threads");
+        static final List<String> FIELDS = List.of("algorithm", "m", "k", "n", "block", "batch", "threads", "fork",
+                "iteration", "seconds", "gflops", "alloc_bytes", "l1_dcm", "l2_dcm", "l2_dca", "host", "timestamp");
+
+        static Map<String, Object> record(String algorithm, int M, int K, int N, int bkSize, int batch, int threads) {
+            Map<String, Object> record = new LinkedHashMap<>();
+            record.put("algorithm", algorithm);
+            record.put("m", M);
+            record.put("k", K);
+            record.put("n", N);
+            record.put("block", bkSize);
+            record.put("batch", batch);
+            record.put("threads", threads);
+            record.put("host", Autotuner.host());
+            record.put("timestamp", java.time.Instant.now().toString());
+            return record;
+        }
+
+        static void append(Path file, List<Map<String, Object>> records) throws IOException {
+            boolean csv = file.toString().endsWith(".csv");
+            boolean header = csv && (!Files.exists(file) || Files.size(file) == 0);
+            try (FileWriter writer = new FileWriter(file.toFile(), true)) {
+                if (header) writer.write(String.join(",", FIELDS) + "\n");
+                for (Map<String, Object> record : records) {
+                    List<String> values = new ArrayList<>();
+                    for (String field : FIELDS) {
+                        Object value = record.get(field);
+                        if (csv) values.add(value == null ? "" : value.toString());
+                        else if (value != null) values.add("\"" + field + "\":" + (value instanceof String ? "\"" + value + "\"" : value));
+                    }
+                    writer.write(csv ? String.join(",", values) + "\n" : "{" + String.join(",", values) + "}\n");
+                }
+            }
+        }
+
+        // Reads the records written by append, as strings
+        static List<Map<String, String>> read(Path file) throws IOException {
+            List<String> lines = Files.readAllLines(file);
+            List<Map<String, String>> records = new ArrayList<>();
+            if (file.toString().endsWith(".csv")) {
+                if (lines.isEmpty()) return records;
+                String[] header = lines.get(0).split(",", -1);
+                for (String line : lines.subList(1, lines.size())) {
+                    if (line.isBlank()) continue;
+                    String[] values = line.split(",", -1);
+                    Map<String, String> record = new HashMap<>();
+                    for (int i = 0; i < header.length && i < values.length; i++)
+                        if (!values[i].isEmpty()) record.put(header[i], values[i]);
+                    records.add(record);
+                }
+            } else {
+                java.util.regex.Pattern pair = java.util.regex.Pattern.compile("\"(\\w+)\":(?:\"([^\"]*)\"|([^,}]+))");
+                for (String line : lines) {
+                    if (line.isBlank()) continue;
+                    Map<String, String> record = new HashMap<>();
+                    java.util.regex.Matcher matcher = pair.matcher(line);
+                    while (matcher.find()) record.put(matcher.group(1), matcher.group(2) != null ? matcher.group(2) : matcher.group(3));
+                    records.add(record);
+                }
+            }
+            return records;
+        }
+
+        // Seconds of every timed record, grouped by configuration
+        private static Map<String, List<Double>> samples(List<Map<String, String>> records) {
+            Map<String, List<Double>> samples = new LinkedHashMap<>();
+            for (Map<String, String> record : records) {
+                if (!record.containsKey("seconds")) continue;
+                String key = KEY.stream().map(field -> record.getOrDefault(field, "-")).reduce((a, b) -> a + " " + b).orElse("");
+                samples.computeIfAbsent(key, k -> new ArrayList<>()).add(Double.parseDouble(record.get("seconds")));
+            }
+            return samples;
+        }
+
+        // Entry point of "compare": Welch's t-test on the times of every configuration present in both files.
+        // A configuration regresses when the candidate is slower by more than threshold (relative) and the one-sided
+        // p-value is under alpha. Returns the number of regressions
+        static int compare(Path baseline, Path candidate, double alpha, double threshold) throws IOException {
+            Map<String, List<Double>> before = samples(read(baseline));
+            Map<String, List<Double>> after = samples(read(candidate));
+
+            System.out.printf("%-44s %5s %5s %12s %12s %9s %10s  %s%n",
+                    String.join(" ", KEY), "n1", "n2", "Base s", "New s", "Change", "p-value", "Verdict");
+            int regressions = 0;
+            for (Map.Entry<String, List<Double>> entry : before.entrySet()) {
+                List<Double> x = entry.getValue(), y = after.get(entry.getKey());
+                if (y == null) continue;
+                double meanX = mean(x), meanY = mean(y);
+                double change = (meanY - meanX) / meanX;
+                double pSlower = welchOneSided(y, x);
+                double pFaster = welchOneSided(x, y);
+
+                String verdict = "same";
+                if (change > threshold && pSlower < alpha) {
+                    verdict = "REGRESSION";
+                    regressions++;
+                } else if (-change > threshold && pFaster < alpha) {
+                    verdict = "improvement";
+                }
+                System.out.printf("%-44s %5d %5d %12.4f %12.4f %+8.1f%% %10.2e  %s%n", entry.getKey(), x.size(), y.size(),
+                        meanX, meanY, 100 * change, change >= 0 ? pSlower : pFaster, verdict);
+            }
+            System.out.printf("%n%d regression(s) at alpha %.3f and threshold %.1f%%%n", regressions, alpha, 100 * threshold);
+            return regressions;
+        }
+
+        private static double mean(List<Double> values) {
+            return values.stream().mapToDouble(Double::doubleValue).average().orElse(0);
+        }
+
+        private static double variance(List<Double> values) {
+            double mean = mean(values);
+            return values.stream().mapToDouble(v -> (v - mean) * (v - mean)).sum() / Math.max(1, values.size() - 1);
+        }
+
+        // p-value of "mean of x is greater than mean of y" under Welch's t-test (unequal variances)
+        static double welchOneSided(List<Double> x, List<Double> y) {
+            if (x.size() < 2 || y.size() < 2) return 1;
+            double vx = variance(x) / x.size(), vy = variance(y) / y.size();
+            double difference = mean(x) - mean(y);
+            if (vx + vy == 0) return difference > 0 ? 0 : 1;
+            double t = difference / Math.sqrt(vx + vy);
+            double df = (vx + vy) * (vx + vy) / (vx * vx / (x.size() - 1) + vy * vy / (y.size() - 1));
+            double tail = 0.5 * incompleteBeta(df / 2, 0.5, df / (df + t * t));   // P(T > |t|)
+            return t > 0 ? tail : 1 - tail;
+        }
+
+        // Regularized incomplete beta function I_x(a, b), continued fraction (Numerical Recipes, betacf)
+        private static double incompleteBeta(double a, double b, double x) {
+            if (x <= 0) return 0;
+            if (x >= 1) return 1;
+            double front = Math.exp(logGamma(a + b) - logGamma(a) - logGamma(b) + a * Math.log(x) + b * Math.log(1 - x));
+            if (x > (a + 1) / (a + b + 2)) return 1 - incompleteBeta(b, a, 1 - x);
+
+            double tiny = 1e-300, c = 1, d = 1 - (a + b) * x / (a + 1);
+            d = 1 / (Math.abs(d) < tiny ? tiny : d);
+            double h = d;
+            for (int m = 1; m <= 300; m++) {
+                for (int step = 0; step < 2; step++) {
+                    double numerator = step == 0
+                            ? m * (b - m) * x / ((a + 2 * m - 1) * (a + 2 * m))
+                            : -(a + m) * (a + b + m) * x / ((a + 2 * m) * (a + 2 * m + 1));
+                    d = 1 + numerator * d;
+                    d = 1 / (Math.abs(d) < tiny ? tiny : d);
+                    c = 1 + numerator / c;
+                    if (Math.abs(c) < tiny) c = tiny;
+                    h *= d * c;
+                    if (step == 1 && Math.abs(d * c - 1) < 1e-14) return front * h / a;
+                }
+            }
+            return front * h / a;
+        }
+
+        // Lanczos approximation of ln(Gamma(x)), x > 0
+        private static double logGamma(double x) {
+            double[] coefficients = {76.18009172947146, -86.50532032941677, 24.01409824083091,
+                    -1.231739572450155, 0.1208650973866179e-2, -0.5395239384953e-5};
+            double y = x, tmp = x + 5.5;
+            tmp -= (x + 0.5) * Math.log(tmp);
+            double series = 1.000000000190015;
+            for (double coefficient : coefficients) series += coefficient / ++y;
+            return -tmp + Math.log(2.5066282746310005 * series / x);
+        }
+    }
+
+    // Hardware counters for the Java kernels, recorded in the same format as the PAPI counters of matrixproduct.cpp.
+    // The run is relaunched under "perf stat" with its counters disabled, and the child JVM enables them through
+    // perf's control FIFO right before the OnMult* call and disables them right after it (like PAPI_start/PAPI_stop)
+    private static final class Counters {
+
+        // perf event names of PAPI_L1_DCM, PAPI_L2_DCM and PAPI_L2_DCA on Intel cores
+        static final String DEFAULT_EVENTS = "L1-dcache-load-misses,l2_rqsts.demand_data_rd_miss,l2_rqsts.all_demand_data_rd";
+        static final String[] LABELS = {"L1 DCM", "L2 DCM", "L2 DCA"};
+
+        // Entry point of "counters": one run of the algorithm, appended to dataFile. A ".csv" or ".jsonl" dataFile
+        // receives a structured record (with the time of the run) instead of the matrixproduct.cpp text format
+        static void run(String[] mainArgs, String algorithm, int dim, int bkSize, String dataFile, String events) throws Exception {
+            if (events.split(",").length != LABELS.length)
+                throw new IllegalArgumentException("Expected " + LABELS.length + " perf events, got: " + events);
+
+            Path directory = Files.createTempDirectory("counters");
+            Path control = directory.resolve("control.fifo");
+            Path ack = directory.resolve("ack.fifo");
+            Path output = directory.resolve("perf.csv");
+            try {
+                for (Path fifo : List.of(control, ack)) {
+                    if (new ProcessBuilder("mkfifo", fifo.toString()).inheritIO().start().waitFor() != 0)
+                        throw new IOException("ERROR: mkfifo " + fifo);
+                }
+
+                List<String> command = new ArrayList<>(List.of("perf", "stat", "-x", ",", "-o", output.toString(),
+                        "-e", events, "--delay", "-1", "--control", "fifo:" + control + "," + ack, "--"));
+                command.addAll(Benchmark.forkCommand(mainArgs));
+                command.addAll(List.of("counters-child", algorithm, String.valueOf(dim), String.valueOf(bkSize),
+                        control.toString(), ack.toString()));
+
+                Process process;
+                try {
+                    process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+                } catch (IOException exception) {
+                    System.out.println("ERROR: perf is not available: " + exception.getMessage());
+                    return;
+                }
+                double seconds = -1;
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (line.startsWith("RESULT ")) seconds = Double.parseDouble(line.substring(7));
+                        else System.out.println(line);
+                    }
+                }
+                if (process.waitFor() != 0) {
+                    System.out.println("ERROR: perf stat exited with " + process.exitValue());
+                    return;
+                }
+
+                long[] values = parse(output);
+
+                // Show results
+                for (int i = 0; i < LABELS.length; i++)
+                    System.out.printf("%s: %d %n", LABELS[i], values[i]);
+
+                // Write data
+                if (dataFile.endsWith(".csv") || dataFile.endsWith(".jsonl")) {
+                    boolean parallel = algorithm.equals("block-parallel") || algorithm.equals("strassen");
+                    Map<String, Object> record = Results.record(algorithm, dim, dim, dim, Benchmark.isBlocked(algorithm) ? bkSize : 0, 1,
+                            parallel ? Runtime.getRuntime().availableProcessors() : 1);
+                    record.put("fork", 1);
+                    record.put("iteration", 1);
+                    record.put("seconds", seconds);
+                    record.put("gflops", 2.0 * dim * dim * dim / seconds / 1e9);
+                    for (int i = 0; i < LABELS.length; i++) record.put(List.of("l1_dcm", "l2_dcm", "l2_dca").get(i), values[i]);
+                    Results.append(Path.of(dataFile), List.of(record));
+                    return;
+                }
+                try (FileWriter writer = new FileWriter(dataFile, true)) {
+                    writer.write("Dimensions: " + dim + "\n");
+                    if (Benchmark.isBlocked(algorithm))
+                        writer.write("Block Size: " + bkSize + "\n");
+                    for (int i = 0; i < LABELS.length; i++)
+                        writer.write(LABELS[i] + ":" + values[i] + "\n");
+                }
+            } finally {
+                for (Path file : List.of(control, ack, output)) Files.deleteIfExists(file);
+                Files.deleteIfExists(directory);
+            }
+        }
+
+        // perf -x output: "value,unit,event,..." per event, in the order of -e. Uncounted events are recorded as -1
+        private static long[] parse(Path output) throws IOException {
+            long[] values = new long[LABELS.length];
+            int event = 0;
+            for (String line : Files.readAllLines(output)) {
+                if (line.isBlank() || line.startsWith("#") || event == values.length) continue;
+                String value = line.split(",")[0];
+                values[event++] = value.startsWith("<") ? -1 : Long.parseLong(value);
+            }
+            return values;
+        }
+
+        // Entry point of "counters-child": runs under perf, counting only around the algorithm
+        static void child(String[] args) throws Exception {
+            String algorithm = args[1];
+            int dim = Integer.parseInt(args[2]);
+            int bkSize = Integer.parseInt(args[3]);
+
+            try (FileOutputStream control = new FileOutputStream(args[4]);
+                 BufferedReader ack = new BufferedReader(new FileReader(args[5]))) {
+                command(control, ack, "enable");
+                double seconds = runAlgorithm(algorithm, dim, bkSize);
+                command(control, ack, "disable");
+                System.out.println();
+                System.out.println("RESULT " + seconds);
+            }
+        }
+
+        private static void command(FileOutputStream control, BufferedReader ack, String command) throws IOException {
+            control.write((command + "\n").getBytes());
+            control.flush();
+            String answer = ack.readLine();
+            if (answer == null || !answer.startsWith("ack"))
+                throw new IOException("ERROR: perf did not acknowledge " + command);
+        }
+    }
+
+    // A, B and C allocated once and reused by every run of every algorithm, instead of three new arrays per OnMult*
+    // call. The initialization is split by rows between the workers of a ForkJoinPool and C is reset in place, in
+    // parallel, before each run. Setup, reset and multiplication are timed separately.
+    // Java arrays are zeroed (first touched) by the allocating thread, so on a NUMA host the pages of the heap are
+    // only spread between nodes with -XX:+UseNUMA (and -XX:+AlwaysPreTouch to fault them in at startup)
+    static final class MatrixPool implements AutoCloseable {
+
+        private final ForkJoinPool pool;
+        private double[] pha = new double[0], phb = new double[0], phc = new double[0];
+        private int dim;
+        private double resetTime;                       // Seconds spent resetting C, over all runs
+
+        MatrixPool(int threads) {
+            this.pool = new ForkJoinPool(threads);
+        }
+
+        // Allocates (only when larger matrices are needed) and initializes A and B as initMatrices does, returns seconds
+        double setup(int dim) {
+            long Time1 = System.nanoTime();
+            if (this.pha.length < dim * dim) {
+                this.pha = new double[dim * dim];
+                this.phb = new double[dim * dim];
+                this.phc = new double[dim * dim];
+            }
+            this.dim = dim;
+            double[] pha = this.pha, phb = this.phb;
+            this.pool.invoke(new ParallelRows(0, dim, 1, a -> {
+                Arrays.fill(pha, a * dim, (a + 1) * dim, 1);
+                Arrays.fill(phb, a * dim, (a + 1) * dim, a + 1);
+            }));
+            return (System.nanoTime() - Time1) / 1e9;
+        }
+
+        void resetC() {
+            double[] phc = this.phc;
+            int dim = this.dim;
+            this.pool.invoke(new ParallelRows(0, dim, 1, i -> Arrays.fill(phc, i * dim, (i + 1) * dim, 0)));
+        }
+
+        double resetTime() {
+            return this.resetTime;
+        }
+
+        // One run of the algorithm over the pooled matrices, printed as the OnMult* methods do. Returns the
+        // multiplication time only. With tiles, "block" runs with the autotuned tiles
+        double run(String algorithm, int bkSize, Autotuner.Tiles tiles) {
+            long Time0 = System.nanoTime();
+            resetC();
+            long Time1 = System.nanoTime();
+            if (algorithm.equals("block") && tiles != null)
+                kernelBlockTiled(pha, phb, phc, dim, dim, dim, dim, tiles.bi(), tiles.bk(), tiles.bj());
+            else
+                runKernel(algorithm, pha, phb, phc, dim, dim, dim, bkSize, pool);
+            long Time2 = System.nanoTime();
+            this.resetTime += (Time1 - Time0) / 1e9;
+
+            double Total_time = (Time2 - Time1) / 1e9;
+
+            System.out.printf("Time: %.3f seconds%n%n", Total_time);
+            System.out.println("Result Matrix: ");
+            for (int c = 0; c < Math.min(10, dim); c++) {
+                System.out.printf("%.2f ", phc[c]);
+            }
+            return Total_time;
+        }
+
+        @Override
+        public void close() {
+            this.pool.shutdown();
+        }
+    }
+
+    // Runs the algorithm RUNS times over the pooled matrices and prints the average, as the main loops do
+    private static void averagePooled(MatrixPool matrices, String algorithm, int bkSize, Autotuner.Tiles tiles) {
+        double total_time = 0;
+        for (int i = 0; i < RUNS; i++)
+            total_time += matrices.run(algorithm, bkSize, tiles);
+        total_time /= RUNS;
+        System.out.printf("AVG Time: %.3f seconds%n%n", total_time);
+    }
+
+    // One full run (allocation, initialization and multiplication) of the algorithm through its OnMult* method
+    public static double runAlgorithm(String algorithm, int dim, int bkSize) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        return switch (algorithm) {
+            case "mult" -> OnMult(dim, dim);
+            case "line" -> OnMultLine(dim, dim);
+            case "line-vector" -> OnMultLineVector(dim, dim);
+            case "block" -> OnMultBlock(dim, dim, bkSize);
+            case "block-parallel" -> OnMultBlockParallel(dim, dim, bkSize, threads);
+            case "transposed" -> OnMultTransposed(dim, dim);
+            case "recursive" -> OnMultRecursive(dim, dim);
+            case "packed" -> OnMultPacked(dim, dim);
+            case "strassen" -> OnMultStrassen(dim, bkSize, STRASSEN_LEAF, threads);
+            default -> throw new IllegalArgumentException("Unknown algorithm: " + algorithm);
+        };
+    }
+
+    // Same initial values as OnMultBlock: A filled with 1 and B with (row + 1)
+    public static void initMatrices(double[] pha, double[] phb, int dim) {
+        initMatrices(pha, phb, dim, dim, dim);
+    }
+
+    // Rectangular version, A is M x K and B is K x N
+    public static void initMatrices(double[] pha, double[] phb, int M, int K, int N) {
+        Arrays.fill(pha, 0, M * K, 1);
+        for (int k = 0; k < K; k++) {
+            Arrays.fill(phb, k * N, (k + 1) * N, k + 1);
+        }
+    }
+
+    // Main usage
+    public static void printUsage() {
+        System.out.println("usage: java matrixproduct.java <DIMENSION> <BLOCK_SIZE> [MODE]");
+        System.out.println("       BLOCK_SIZE can be \"auto\" to use the autotuned tiles of this host and dimension");
+        System.out.println("       java matrixproduct.java bench [dims=D1,D2,..] [blocks=B1,B2,..] [algs=A1,A2,..]");
+        System.out.println("                                     [shapes=MxKxN,..] [batches=B1,B2,..] [warmup=N] [iterations=N] [forks=N] [threads=N]");
+        System.out.println("                                     [out=FILE.csv|FILE.jsonl]");
+        System.out.println("       java matrixproduct.java serve [port=9090] [bind=ADDRESS] [workers=N] [threads=N] [sessions=256] [budget=MB]");
+        System.out.println("       java matrixproduct.java serve-load [host=localhost] [port=9090] [clients=8] [requests=50] [warmup=5]");
+        System.out.println("                                          [dim=256] [alg=block] [block=64]");
+        System.out.println("       java matrixproduct.java compare <BASELINE> <CANDIDATE> [ALPHA] [THRESHOLD]");
+        System.out.println("                                     Welch's t-test per configuration, exits with 1 on regressions");
+        System.out.println("       <MODE>");
+        System.out.println("           (none)                - OnMult, OnMultLine and OnMultBlock averages");
+        System.out.println("           autotune              - searches the best tiles for DIMENSION and saves them in " + Autotuner.PROFILE);
+        System.out.println("           parallel [MAX_THREADS] - OnMultBlockParallel speedup and efficiency for 1..MAX_THREADS");
+        System.out.println("                                   (defaults to the number of available processors)");
+        System.out.println("           line-vector           - OnMultLineVector (Vector API) averages");
+        System.out.println("           transposed            - OnMultTransposed (naive order, B transposed up front) averages");
+        System.out.println("           recursive             - OnMultRecursive (cache-oblivious divide and conquer) averages");
+        System.out.println("           packed                - OnMultPacked (packed panels, register-tiled micro-kernel) averages");
+        System.out.println("           precision             - throughput and error of double, float and mixed precision line/block");
+        System.out.println("           sparse [DENSITY_A] [DENSITY_B] [THREADS] - density-adaptive dispatch (SpGEMM, SpMM, dense x CSC");
+        System.out.println("                                   or dense) against the dense packed kernel, on random matrices");
+        System.out.println("           offheap [ALGORITHM]   - mult, line or block (default) over off-heap matrices, long indexed");
+        System.out.println("           strassen [LEAF] [THREADS] - OnMultStrassen averages and accuracy against the blocked product");
+        System.out.println("           strassen-crossover [LEAF] [THREADS] - Strassen vs parallel blocked for LEAF * 2^j up to DIMENSION");
+        System.out.println("           counters [ALGORITHM] [DATA_FILE] [EVENTS] - one run under perf stat, L1 DCM, L2 DCM and L2 DCA");
+        System.out.println("                                   appended to DATA_FILE (default data/java.txt) as matrixproduct.cpp does");
+        System.out.println("           verify [ALGORITHM] [ROUNDS] [THREADS] - Freivalds check of ALGORITHM (default block) in O(n^2)");
+        System.out.println("                                   and per-tile checksums of the blocked product, on random matrices");
+        System.out.println("           numa [THREADS_PER_NODE] - blocked product with A/C rows split per NUMA node, B copied per node,");
+        System.out.println("                                   placed and computed by threads pinned to their node; per-node report");
+        System.out.println("           specialized           - kernelBlock against a blocked kernel generated for DIMENSION and BLOCK_SIZE");
+        System.out.println("           roofline [THREADS] [SVG] - host peak FLOP/s and bandwidth, and where each kernel sits under");
+        System.out.println("                                   them (table, and plot in SVG, default roofline.svg)");
+        System.out.println("           expr [THREADS]        - A B C + D with thin A, C and D, eager left to right against the lazy");
+        System.out.println("                                   expression (chain order, fused sum, reused temporaries)");
+        System.out.println("           summa [WORKERS]       - SUMMA over WORKERS (default 4) local worker JVMs on loopback sockets,");
+        System.out.println("                                   BLOCK_SIZE is the panel width; reports communication and compute times");
+        System.out.println("           ooc [CACHE_MB] [DIR]  - out-of-core multiply of A.cpdm and B.cpdm into C.cpdm (BLOCK_SIZE is the tile),");
+        System.out.println("                                   at most CACHE_MB (default 256) of mapped tiles, DIR defaults to the temp directory");
+        System.out.println("       <ALGORITHMS>");
+        System.out.println("           mult, line, line-vector, block, block-parallel, block-specialized, transposed, recursive, packed, strassen, adaptive");
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        if (args.length > 0 && args[0].equals("bench")) {
+            Benchmark.run(args, Benchmark.parseOptions(args, 1));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("bench-fork")) {
+            Benchmark.forked(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("counters-child")) {
+            Counters.child(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("serve")) {
+            MultiplyServer.serve(Benchmark.parseOptions(args, 1));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("serve-load")) {
+            MultiplyServer.load(Benchmark.parseOptions(args, 1));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("compare")) {
+            if (args.length < 3) {
+                Main.printUsage();
+                return;
+            }
+            double alpha = args.length > 3 ? Double.parseDouble(args[3]) : 0.05;
+            double threshold = args.length > 4 ? Double.parseDouble(args[4]) : 0.02;
+            if (Results.compare(Path.of(args[1]), Path.of(args[2]), alpha, threshold) > 0) System.exit(1);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("summa-worker")) {
+            Summa.worker(args);
+            return;
+        }
+
+        if (args.length < 2) {
+            Main.printUsage();
+            return;
+        }
+        
+        int dim = Integer.parseInt(args[0]);
+        // "auto" takes the block sizes from the autotuner profile, tuning them first if this host and dimension are new
+        Autotuner.Tiles tiles = null;
+        int bkSize;
+        if (args[1].equals("auto")) {
+            tiles = args.length > 2 && args[2].equals("autotune") ? Autotuner.tune(dim) : Autotuner.tilesFor(dim);
+            bkSize = tiles.square();
+        } else {
+            bkSize = Integer.parseInt(args[1]);
+        }
+
+        if (args.length > 2) {
+            switch (args[2]) {
+                case "parallel" -> {
+                    int maxThreads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+                    scalingReport(dim, bkSize, maxThreads);
+                }
+                case "precision" -> precisionReport(dim, bkSize);
+                case "sparse" -> {
+                    double densityA = args.length > 3 ? Double.parseDouble(args[3]) : 0.01;
+                    double densityB = args.length > 4 ? Double.parseDouble(args[4]) : 1;
+                    int threads = args.length > 5 ? Integer.parseInt(args[5]) : Runtime.getRuntime().availableProcessors();
+                    sparseReport(dim, densityA, densityB, threads);
+                }
+                case "transposed", "recursive", "packed", "line-vector" -> {
+                    if (args[2].equals("packed") || args[2].equals("line-vector")) printSpecies();
+                    try (MatrixPool matrices = new MatrixPool(Runtime.getRuntime().availableProcessors())) {
+                        System.out.printf("Setup: %.3f seconds%n%n", matrices.setup(dim));
+                        averagePooled(matrices, args[2], bkSize, null);
+                        System.out.printf("Reset: %.3f seconds in total%n%n", matrices.resetTime());
+                    }
+                }
+                case "offheap" -> {
+                    String algorithm = args.length > 3 ? args[3] : "block";
+                    double total_time = 0;
+                    for (int i = 0; i < RUNS; i++)
+                        total_time += OnMultOffHeap(dim, dim, algorithm, bkSize);
+                    total_time /= RUNS;
+                    System.out.printf("AVG Time: %.3f seconds%n%n", total_time);
+                }
+                case "ooc" -> {
+                    long cacheBytes = (args.length > 3 ? Long.parseLong(args[3]) : 256) * 1024 * 1024;
+                    Path directory = Path.of(args.length > 4 ? args[4] : System.getProperty("java.io.tmpdir"));
+                    double total_time = OnMultOutOfCore(dim, bkSize, cacheBytes, directory);
+                    System.out.printf("%nTotal Time: %.3f seconds%n%n", total_time);
+                }
+                case "autotune" -> {
+                    if (tiles == null) Autotuner.tune(dim);
+                }
+                case "counters" -> {
+                    String algorithm = args.length > 3 ? args[3] : "block";
+                    String dataFile = args.length > 4 ? args[4] : "data/java.txt";
+                    String events = args.length > 5 ? args[5] : Counters.DEFAULT_EVENTS;
+                    Counters.run(args, algorithm, dim, bkSize, dataFile, events);
+                }
+                case "strassen" -> {
+                    int leaf = args.length > 3 ? Integer.parseInt(args[3]) : STRASSEN_LEAF;
+                    int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+                    double total_time = 0;
+                    for (int i = 0; i < RUNS; i++)
+                        total_time += OnMultStrassen(dim, bkSize, leaf, threads);
+                    total_time /= RUNS;
+                    System.out.printf("AVG Time: %.3f seconds%n%n", total_time);
+
+                    ForkJoinPool pool = new ForkJoinPool(threads);
+                    strassenAccuracy(dim, bkSize, leaf, pool);
+                    pool.shutdown();
+                }
+                case "verify" -> {
+                    String algorithm = args.length > 3 ? args[3] : "block";
+                    int rounds = args.length > 4 ? Integer.parseInt(args[4]) : 2;
+                    int threads = args.length > 5 ? Integer.parseInt(args[5]) : Runtime.getRuntime().availableProcessors();
+                    Verify.report(dim, bkSize, algorithm, rounds, threads);
+                }
+                case "numa" -> {
+                    int threadsPerNode = args.length > 3 ? Integer.parseInt(args[3])
+                            : Math.max(1, Runtime.getRuntime().availableProcessors() / Numa.topology().size());
+                    Numa.report(dim, bkSize, threadsPerNode);
+                }
+                case "specialized" -> Specializer.report(dim, bkSize);
+                case "roofline" -> {
+                    int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+                    Roofline.report(dim, bkSize, threads, args.length > 4 ? args[4] : "roofline.svg");
+                }
+                case "expr" -> {
+                    int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+                    expressionReport(dim, bkSize, threads);
+                }
+                case "summa" -> {
+                    int workers = args.length > 3 ? Integer.parseInt(args[3]) : 4;
+                    Summa.run(args, dim, bkSize, workers);
+                }
+                case "strassen-crossover" -> {
+                    int leaf = args.length > 3 ? Integer.parseInt(args[3]) : STRASSEN_LEAF;
+                    int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+                    strassenCrossover(dim, bkSize, leaf, threads);
+                }
+                default -> Main.printUsage();
+            }
+            return;
+        }
+
+        // The three matrices are allocated and initialized once, and only C is reset between runs
+        try (MatrixPool matrices = new MatrixPool(Runtime.getRuntime().availableProcessors())) {
+            System.out.printf("Setup: %.3f seconds%n%n", matrices.setup(dim));
+
+            averagePooled(matrices, "mult", bkSize, tiles);
+            averagePooled(matrices, "line", bkSize, tiles);
+            averagePooled(matrices, "block", bkSize, tiles);
+
+            System.out.printf("Reset: %.3f seconds in total%n%n", matrices.resetTime());
+        }
     }
 }
@@ -0,0 +1,207 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+
+// Selector event loop running the authentication handshakes of many connections at once, instead of one blocked
+// thread per connection. Each socket registered here gets a Session, which holds its Handshake and the output not
+// yet written. Credentials are checked on the workers (BCrypt is slow) and the answer comes back to the loop.
+// Authenticated clients are switched back to blocking mode, which the games use, and placed in the waiting queue
+public class AuthReactor implements Runnable {
+
+    private final Server server;
+    private final ExecutorService workers;                  // Checks credentials and fills the waiting queue
+    private final long timeout;                             // Time a client has to authenticate (milliseconds)
+    private final Selector selector;
+    private final Queue<SocketChannel> registrations;       // Accepted sockets, registered by the loop
+    private final Queue<Runnable> completions;              // Results of the workers, applied by the loop
+    private final List<Session> handovers;                  // Authenticated sessions, removed from the selector
+    private final ByteBuffer input;                         // One message at a time, as Connection.receive
+
+    private static final int SWEEP_INTERVAL = 1000;         // Time between timeout checks (milliseconds)
+
+    private static final class Session {
+        private final SocketChannel socket;
+        private final Handshake handshake;
+        private final Deque<ByteBuffer> output = new ArrayDeque<>();
+        private SelectionKey key;
+        private boolean checking;                           // Credentials on a worker: the session waits
+
+        Session(SocketChannel socket, Handshake handshake) {
+            this.socket = socket;
+            this.handshake = handshake;
+        }
+    }
+
+    public AuthReactor(Server server, ExecutorService workers, long timeout) throws IOException {
+        this.server = server;
+        this.workers = workers;
+        this.timeout = timeout;
+        this.selector = Selector.open();
+        this.registrations = new ConcurrentLinkedQueue<>();
+        this.completions = new ConcurrentLinkedQueue<>();
+        this.handovers = new ArrayList<>();
+        this.input = ByteBuffer.allocate(1024);
+    }
+
+    // Hands a newly accepted socket over to the loop. Can be called from any thread
+    public void register(SocketChannel socket) {
+        this.registrations.add(socket);
+        this.selector.wakeup();
+    }
+
+    public void run() {
+        long lastSweep = System.currentTimeMillis();
+        while (true) {
+            try {
+                this.selector.select(SWEEP_INTERVAL);
+
+                SocketChannel socket;
+                while ((socket = this.registrations.poll()) != null) this.accept(socket);
+
+                Runnable completion;
+                while ((completion = this.completions.poll()) != null) completion.run();
+
+                Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    Session session = (Session) key.attachment();
+                    try {
+                        if (key.isValid() && key.isWritable()) this.flush(session);
+                        if (key.isValid() && key.isReadable()) this.read(session);
+                    } catch (IOException | RuntimeException exception) {
+                        System.out.println("Error handling client: " + exception);
+                        this.close(session);
+                    }
+                }
+
+                if (System.currentTimeMillis() - lastSweep >= SWEEP_INTERVAL) {
+                    lastSweep = System.currentTimeMillis();
+                    this.sweep();
+                }
+
+                // Cancelled keys are only removed by the next selection, and a socket cannot go back to
+                // blocking mode while it is still registered
+                if (!this.handovers.isEmpty()) {
+                    this.selector.selectNow();
+                    for (Session session : this.handovers) this.handOver(session);
+                    this.handovers.clear();
+                }
+            } catch (IOException exception) {
+                System.out.println("Error in authentication loop: " + exception);
+            }
+        }
+    }
+
+    private void accept(SocketChannel socket) {
+        Session session = new Session(socket, new Handshake(this.timeout));
+        try {
+            socket.configureBlocking(false);
+            session.key = socket.register(this.selector, 0, session);
+            this.send(session, session.handshake.start());
+        } catch (IOException exception) {
+            System.out.println("Error handling client: " + exception);
+            this.close(session);
+        }
+    }
+
+    private void read(Session session) throws IOException {
+        this.input.clear();
+        int bytesRead = session.socket.read(this.input);
+        if (bytesRead < 0) {
+            this.close(session);
+            return;
+        }
+        if (bytesRead > 0)
+            this.send(session, session.handshake.receive(new String(this.input.array(), 0, bytesRead)));
+    }
+
+    private void send(Session session, List<Handshake.Request> requests) throws IOException {
+        for (Handshake.Request request : requests)
+            session.output.add(ByteBuffer.wrap((request.type() + "\n" + request.message()).getBytes()));
+        this.flush(session);
+    }
+
+    // Writes as much of the output as the socket takes, then decides what the session waits for
+    private void flush(Session session) throws IOException {
+        while (!session.output.isEmpty()) {
+            ByteBuffer buffer = session.output.peek();
+            session.socket.write(buffer);
+            if (buffer.hasRemaining()) break;
+            session.output.poll();
+        }
+
+        if (!session.output.isEmpty()) {
+            session.key.interestOps(SelectionKey.OP_WRITE);
+            return;
+        }
+        switch (session.handshake.getState()) {
+            case CLOSED -> this.close(session);
+            case DONE -> {
+                session.key.cancel();
+                this.handovers.add(session);
+            }
+            case CHECKING -> {
+                session.key.interestOps(0);
+                if (!session.checking) this.check(session);
+            }
+            default -> session.key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    private void check(Session session) {
+        session.checking = true;
+        this.workers.execute(() -> {
+            List<Handshake.Request> answer = this.server.authenticate(session.handshake, session.socket);
+            this.completions.add(() -> {
+                session.checking = false;
+                try {
+                    this.send(session, answer);
+                } catch (IOException | RuntimeException exception) {
+                    System.out.println("Error handling client: " + exception);
+                    this.close(session);
+                }
+            });
+            this.selector.wakeup();
+        });
+    }
+
+    // Ends the handshakes that took longer than the timeout
+    private void sweep() {
+        for (SelectionKey key : this.selector.keys()) {
+            Session session = (Session) key.attachment();
+            if (!key.isValid() || session.checking || !session.handshake.expired()) continue;
+            System.out.println("Connection timeout");
+            try {
+                this.send(session, session.handshake.timeout());
+            } catch (IOException | RuntimeException exception) {
+                this.close(session);
+            }
+        }
+    }
+
+    private void handOver(Session session) {
+        try {
+            session.socket.configureBlocking(true);
+            Client client = session.handshake.getClient();
+            this.workers.execute(() -> this.server.enqueue(client));
+        } catch (IOException exception) {
+            System.out.println("Error handling client: " + exception);
+            this.close(session);
+        }
+    }
+
+    private void close(Session session) {
+        if (session.key != null) session.key.cancel();
+        try {
+            session.socket.close();
+        } catch (IOException exception) {
+            System.out.println("Error closing client: " + exception);
+        }
+    }
+}
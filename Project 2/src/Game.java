@@ -64,7 +64,16 @@ public class Game implements Runnable {
         }
     }
 
+    // The QUEUE request is exchanged before taking the lock, so that no other thread waits on this player's socket
     private void insertInQueue(Client player) {
+        try {
+            Server.request(player.getSocket(), "QUEUE", "You entered in waiting queue with ranking  " + player.getRank() + " points.");
+            Connection.receive(player.getSocket());
+        } catch (Exception exception) {
+            System.out.println("Error during insert in waiting queue. Info: " + exception.getMessage());
+            return;
+        }
+
         this.waiting_queue_lock.lock();
         try {
             for (Client c : this.waiting_queue) {
@@ -74,23 +83,15 @@ public class Game implements Runnable {
                     System.out.println("FOUND DUPLICATE IN QUEUE");
                     c.setSocket(player.getSocket());
                     System.out.println("Client " + player.getUsername() + " reconnected. Queue size: " + this.waiting_queue.size());
-                    Server.request(player.getSocket(), "QUEUE", "You entered in waiting queue with ranking  " + player.getRank() + " points.");
-                    Connection.receive(player.getSocket());
-                    this.waiting_queue_lock.unlock();
                     return;
                 }
             }
 
             // If the client is not already in the queue, add them to the end of the queue
-
             this.waiting_queue.add(player);
-            Server.request(player.getSocket(), "QUEUE", "You entered in waiting queue with ranking  " + player.getRank() + " points.");
-            Connection.receive(player.getSocket());
             System.out.println("Client " + player.getUsername() + " is now in waiting queue. Queue size: " + this.waiting_queue.size());
+        } finally {
             this.waiting_queue_lock.unlock();
-
-        } catch (Exception exception) {
-            System.out.println("Error during insert in waiting queue. Info: " + exception.getMessage());
         }
     }
 
@@ -0,0 +1,164 @@
+import java.util.List;
+
+// Server side of the authentication protocol (see Server.request) as a state machine without any I/O, so that it can
+// be driven by a Selector loop as well as by a thread blocked on the socket.
+// Every message of the client goes to receive(), which returns the requests to send back. When the state becomes
+// CHECKING, the caller checks the credentials (BCrypt and database, see Server.authenticate) and gives the outcome
+// to authenticated() or refused()
+public class Handshake {
+
+    public enum State {
+        OPTION,     // Waiting for an option of the menu
+        USERNAME,   // Waiting for a username (login or register)
+        PASSWORD,   // Waiting for a password (login or register)
+        TOKEN,      // Waiting for a session token (reconnect)
+        CHECKING,   // Waiting for the credentials to be checked
+        ACK,        // Waiting for the acknowledgement of a NACK, then the menu is sent again
+        AUTH_ACK,   // Waiting for the acknowledgement of the session token
+        QUEUE_ACK,  // Waiting for the acknowledgement of the waiting queue message
+        DONE,       // Authenticated: the client can be placed in the waiting queue
+        CLOSED      // FIN sent: the connection is to be closed
+    }
+
+    // Request type and message, as sent by Server.request
+    public record Request(String type, String message) {}
+
+    private static final String MENU = "1 - Login\n2 - Register\n3 - Reconnect\n4 - Quit";
+
+    private final long deadline;    // Time (milliseconds) after which the handshake is ended, before authentication
+    private State state;
+    private String option;
+    private String username;
+    private String secret;          // Password or session token
+    private Client client;
+    private String queueMessage;
+
+    public Handshake(long timeout) {
+        this.deadline = System.currentTimeMillis() + timeout;
+    }
+
+    // First request of the handshake
+    public List<Request> start() {
+        return this.menu();
+    }
+
+    // Handles one message of the client
+    public List<Request> receive(String message) {
+        switch (this.state) {
+            case OPTION -> {
+                this.option = message.toUpperCase();
+                switch (this.option) {
+                    case "1", "2" -> {
+                        this.state = State.USERNAME;
+                        return List.of(new Request("USR", "Username?"));
+                    }
+                    case "3" -> {
+                        this.state = State.TOKEN;
+                        return List.of(new Request("TKN", "Token?"));
+                    }
+                    case "4" -> {
+                        return this.close();
+                    }
+                    default -> { // Unknown option. Refuse option and try again.
+                        this.state = State.ACK;
+                        return List.of(new Request("NACK", "Option refused"));
+                    }
+                }
+            }
+            case USERNAME -> {
+                if (message.equals("BACK")) return this.menu();
+                this.username = message;
+                this.state = State.PASSWORD;
+                return List.of(new Request("PSW", "Password?"));
+            }
+            case PASSWORD, TOKEN -> {
+                if (message.equals("BACK")) return this.menu();
+                this.secret = message;
+                this.state = State.CHECKING;
+                return List.of();
+            }
+            case ACK -> {
+                return this.menu();
+            }
+            case AUTH_ACK -> {
+                this.state = State.QUEUE_ACK;
+                return List.of(new Request("QUEUE", this.queueMessage));
+            }
+            case QUEUE_ACK -> {
+                this.state = State.DONE;
+                return List.of();
+            }
+            default -> throw new IllegalStateException("Unexpected message in state " + this.state + ": " + message);
+        }
+    }
+
+    // The credentials were accepted: sends the session token, and then the waiting queue message
+    public List<Request> authenticated(Client client, String token, String queueMessage) {
+        this.client = client;
+        this.queueMessage = queueMessage;
+        this.state = State.AUTH_ACK;
+        return List.of(new Request("AUTH", "token-" + client.getUsername() + ".txt\n" + token));
+    }
+
+    // The credentials were refused: sends the reason, and then the menu again
+    public List<Request> refused(String reason) {
+        this.state = State.ACK;
+        return List.of(new Request("NACK", reason));
+    }
+
+    // Ends the handshake of a client that took too long
+    public List<Request> timeout() {
+        return this.state == State.CLOSED ? List.of() : this.close();
+    }
+
+    // The deadline only applies while the client still has to authenticate: once the credentials are accepted, the
+    // session token and the waiting queue message are sent whatever the time
+    public boolean expired() {
+        return switch (this.state) {
+            case OPTION, USERNAME, PASSWORD, TOKEN, ACK -> System.currentTimeMillis() >= this.deadline;
+            default -> false;
+        };
+    }
+
+    // Milliseconds left before expired() becomes true, 0 when the deadline does not apply to the state
+    public long remaining() {
+        return switch (this.state) {
+            case OPTION, USERNAME, PASSWORD, TOKEN, ACK -> Math.max(1, this.deadline - System.currentTimeMillis());
+            default -> 0;
+        };
+    }
+
+    private List<Request> menu() {
+        if (System.currentTimeMillis() >= this.deadline) {
+            System.out.println("Connection timeout");
+            return this.close();
+        }
+        this.state = State.OPTION;
+        return List.of(new Request("OPT", MENU));
+    }
+
+    private List<Request> close() {
+        this.state = State.CLOSED;
+        return List.of(new Request("FIN", "Connection terminated"));
+    }
+
+    public State getState() {
+        return this.state;
+    }
+
+    public String getOption() {
+        return this.option;
+    }
+
+    public String getUsername() {
+        return this.username;
+    }
+
+    public String getSecret() {
+        return this.secret;
+    }
+
+    public Client getClient() {
+        return this.client;
+    }
+}
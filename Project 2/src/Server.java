@@ -1,12 +1,14 @@
+import java.io.EOFException;
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.util.*;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 import org.json.simple.parser.ParseException;
-import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.locks.ReentrantLock;
 import org.springframework.security.crypto.bcrypt.BCrypt;
 
@@ -15,9 +17,11 @@ public class Server {
     // Server
     private final int port;
     private final int mode;
+    private final boolean virtualThreads;       // Games and authentications on virtual threads, one per task
     private ServerSocketChannel serverSocket;
     private final ExecutorService threadPoolGame;
     private final ExecutorService threadPoolAuth;
+    private final ExecutorService threadPoolCredentials;    // BCrypt and database checks, one platform thread per core
     private int time;
     private long startTime;
     private final ReentrantLock time_lock;
@@ -28,7 +32,9 @@ public class Server {
     private long lastPing;
 
     // Game
-    private final int MAX_CONCURRENT_GAMES = 5;
+    public static final int MAX_CONCURRENT_GAMES = 5;   // Default admission limit
+    private final int maxGames;
+    private final Semaphore gameSlots;                  // One permit per game that can still be started
     private final int PLAYERS_PER_GAME = 2;
 
     // Represents the time, in seconds, for the server to increase the tolerated interval
@@ -43,7 +49,13 @@ public class Server {
     // Clients
     private List<Client> waiting_queue;
     private ReentrantLock waiting_queue_lock;
-    private final int MAX_CONCURRENT_AUTH = 5;
+
+    // Authentication: handshakes run on a few Selector loops, credentials are checked (BCrypt) on a thread pool.
+    // With virtual threads, each connection is authenticated by handleClient on its own virtual thread instead, and
+    // only the credentials are checked on the thread pool
+    private final int AUTH_LOOPS = Math.min(4, Runtime.getRuntime().availableProcessors());
+    private final int MAX_CONCURRENT_AUTH = Runtime.getRuntime().availableProcessors();
+    private final List<AuthReactor> authReactors;
 
     // Token Generation
     private int token_index;
@@ -52,17 +64,29 @@ public class Server {
     // GUI
     private final ServerGUI serverGUI;
 
-    public Server(int port, int mode, String filename) throws IOException, ParseException {
+    public Server(int port, int mode, String filename, boolean virtualThreads, int maxGames) throws IOException, ParseException {
 
         // Server information
         this.port = port;
         this.mode = mode;
+        this.virtualThreads = virtualThreads;
+        this.maxGames = maxGames;
         this.startTime = System.currentTimeMillis();
 
         // Concurrent fields
-        this.threadPoolGame = Executors.newFixedThreadPool(this.MAX_CONCURRENT_GAMES);
-        this.threadPoolAuth = Executors.newFixedThreadPool(this.MAX_CONCURRENT_AUTH);
+        if (virtualThreads) {
+            this.threadPoolGame = Executors.newVirtualThreadPerTaskExecutor();
+            this.threadPoolAuth = Executors.newVirtualThreadPerTaskExecutor();
+            // BCrypt would keep the carrier threads busy, and starve the other virtual threads
+            this.threadPoolCredentials = Executors.newFixedThreadPool(this.MAX_CONCURRENT_AUTH);
+        } else {
+            this.threadPoolGame = Executors.newFixedThreadPool(maxGames);
+            this.threadPoolAuth = Executors.newFixedThreadPool(this.MAX_CONCURRENT_AUTH);
+            this.threadPoolCredentials = this.threadPoolAuth;
+        }
+        this.gameSlots = new Semaphore(maxGames);
         this.waiting_queue = new ArrayList<Client>();
+        this.authReactors = new ArrayList<>();
         this.database = new Database(this.DATABASE_PATH + filename);
         this.token_index = 0;
         this.time = 0;
@@ -80,19 +104,25 @@ public class Server {
 
     // Server usage
     public static void printUsage() {
-        System.out.println("usage: java Server <PORT> <MODE> <DATABASE>");
+        System.out.println("usage: java Server <PORT> <MODE> <DATABASE> [THREADS] [MAX_GAMES]");
         System.out.println("       <MODE>");
         System.out.println("           0 - Simple Mode");
         System.out.println("           1 - Ranking Mode");
         System.out.println("       <DATABASE>");
         System.out.println("           JSON file name inside Server/databases folder");
+        System.out.println("       [THREADS]");
+        System.out.println("           platform - Selector loops for authentication, a thread pool for games (default)");
+        System.out.println("           virtual  - One virtual thread per authentication and per game");
+        System.out.println("       [MAX_GAMES]");
+        System.out.println("           Games played at the same time, " + MAX_CONCURRENT_GAMES + " by default");
     }
 
     // Starts the server and listens for connections on the specified port
     public void start() throws IOException {
         this.serverSocket = ServerSocketChannel.open();
         serverSocket.bind(new InetSocketAddress(this.port));
-        System.out.println("Server is listening on port " + this.port + " with " + (this.mode == 1 ? "rank" : "simple") + " mode");
+        System.out.println("Server is listening on port " + this.port + " with " + (this.mode == 1 ? "rank" : "simple") + " mode, "
+                + (this.virtualThreads ? "virtual" : "platform") + " threads and up to " + this.maxGames + " games");
     }
 
     // Updates the server time by computing the elapsed time since the server started
@@ -116,15 +146,14 @@ public class Server {
 
         this.waiting_queue_lock.lock();
 
-        if (this.waiting_queue.size() >= this.PLAYERS_PER_GAME) { // Check if there are enough players in the waiting queue
+        // Check if there are enough players in the waiting queue, and room for one more game
+        if (this.waiting_queue.size() >= this.PLAYERS_PER_GAME && this.gameSlots.tryAcquire()) {
             List<Client> gameClients = new ArrayList<>();
             for (int i = 0; i < this.PLAYERS_PER_GAME; i++) {
                 gameClients.add(this.waiting_queue.remove(0)); // Remove players from the waiting queue and add them to the game
                 System.out.println("Client " + gameClients.get(i).getUsername() + " removed from waiting queue");
             }
-            Runnable gameRunnable = new Game(gameClients, this.database, this.database_lock, this.waiting_queue, this.waiting_queue_lock);
-
-            this.threadPoolGame.execute(gameRunnable); // Execute the game on a thread from the thread pool
+            this.startGame(gameClients);
         }
         serverStatusGUI();
 
@@ -134,7 +163,8 @@ public class Server {
     private void gameSchedulerRank() {
 
         this.waiting_queue_lock.lock();
-        if (this.waiting_queue.size() >= this.PLAYERS_PER_GAME) { // Check if there are enough clients in the queue to start a game
+        // Check if there are enough clients in the queue to start a game, and room for one more game
+        if (this.waiting_queue.size() >= this.PLAYERS_PER_GAME && this.gameSlots.tryAcquire()) {
             this.updateServerTime();        // Update the server time
             this.sortClients();             // Sort the clients by rank
             int slack = this.getSlack();    // Get the maximum allowable difference in rank between players in a game
@@ -154,20 +184,32 @@ public class Server {
                     gameClients.add(this.waiting_queue.remove(i));
                 }
 
-                // Create a new Game instance and execute it in a new thread
-                Runnable gameRunnable = new Game(gameClients, this.database, this.database_lock, this.waiting_queue, this.waiting_queue_lock);
-                this.threadPoolGame.execute(gameRunnable);
+                this.startGame(gameClients);
                 this.waiting_queue_lock.unlock();
                 this.resetServerTime();
                 serverStatusGUI();
                 return;
             }
+            this.gameSlots.release(); // No balanced game yet
         }
         serverStatusGUI();
 
         this.waiting_queue_lock.unlock();
     }
 
+    // Creates a new Game instance and executes it, on the game thread pool or on a new virtual thread.
+    // The caller holds one of the game slots, which is released when the game ends
+    private void startGame(List<Client> gameClients) {
+        Game game = new Game(gameClients, this.database, this.database_lock, this.waiting_queue, this.waiting_queue_lock);
+        this.threadPoolGame.execute(() -> {
+            try {
+                game.run();
+            } finally {
+                this.gameSlots.release();
+            }
+        });
+    }
+
     // Method to calculate the current slack time based on the server time and the time factor
     private int getSlack() {
         this.time_lock.lock();
@@ -176,21 +218,26 @@ public class Server {
         return current_time / this.TIME_FACTOR;
     }
 
-    // Handle incoming client connections
+    // Handle incoming client connections: each one is authenticated by one of the Selector loops, in turn, or by
+    // handleClient on a virtual thread
     private void connectionAuthenticator() {
+        int next = 0;
         while (true) {
             try {
                 SocketChannel clientSocket = this.serverSocket.accept();
                 System.out.println("Client connected: " + clientSocket.getRemoteAddress());
-
-                Runnable newClientRunnable = () -> {
-                    try {
-                        handleClient(clientSocket);
-                    } catch (Exception exception) {
-                        System.out.println("Error handling client: " + exception);
-                    }
-                };
-                this.threadPoolAuth.execute(newClientRunnable);
+                if (this.virtualThreads) {
+                    this.threadPoolAuth.execute(() -> {
+                        try {
+                            handleClient(clientSocket);
+                        } catch (Exception exception) {
+                            System.out.println("Error handling client: " + exception);
+                        }
+                    });
+                } else {
+                    this.authReactors.get(next).register(clientSocket);
+                    next = (next + 1) % this.authReactors.size();
+                }
 
             } catch (Exception exception) {
                 System.out.println("Error handling client: " + exception);
@@ -202,28 +249,35 @@ public class Server {
         if(System.currentTimeMillis() - this.lastPing > this.PING_INTERVAL) {
             this.lastPing = System.currentTimeMillis();
 
+            // The clients are pinged without holding the lock, so that no other thread waits on their sockets
             this.waiting_queue_lock.lock();
-            if (this.waiting_queue.size() == 0) {
-                this.waiting_queue_lock.unlock();
+            List<Client> clients = new ArrayList<>(this.waiting_queue);
+            this.waiting_queue_lock.unlock();
+            if (clients.size() == 0) {
                 return;
             }
 
             System.out.println("Pinging clients...");
 
-            Iterator<Client> iterator = this.waiting_queue.iterator();
-            while (iterator.hasNext()) {
-                Client client = iterator.next();
+            // Sockets that failed, not clients: a client that reconnected in the meantime has a new socket and stays
+            Set<SocketChannel> lost = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (Client client : clients) {
+                SocketChannel socket = client.getSocket();
                 try {
-                    Server.request(client.getSocket(), "PING", "");
-                } catch (IOException exception) {
+                    Server.request(socket, "PING", "");
+                } catch (Exception exception) {
+                    // Any failure, not only I/O: an exception here would end the game scheduler thread
                     System.out.println("Error pinging client: " + exception);
-                    iterator.remove();
-                } catch (Exception e) {
-                    this.waiting_queue_lock.unlock();
-                    throw new RuntimeException(e);
+                    lost.add(socket);
                 }
             }
-            this.waiting_queue_lock.unlock();
+
+            this.waiting_queue_lock.lock();
+            try {
+                this.waiting_queue.removeIf(client -> lost.contains(client.getSocket()));
+            } finally {
+                this.waiting_queue_lock.unlock();
+            }
         }
     }
 
@@ -241,6 +295,11 @@ public class Server {
         });
 
         // Authenticates all connections and push new clients into waiting list
+        for (int i = 0; i < (this.virtualThreads ? 0 : this.AUTH_LOOPS); i++) {
+            AuthReactor reactor = new AuthReactor(this, this.threadPoolCredentials, this.TIMEOUT);
+            this.authReactors.add(reactor);
+            new Thread(reactor, "auth-loop-" + i).start();
+        }
         Thread connectionAuthenticatorThread = new Thread(() -> {
             while (true) connectionAuthenticator();
         });
@@ -265,31 +324,43 @@ public class Server {
         return BCrypt.hashpw(username + index, BCrypt.gensalt());
     }
 
-    // Inserts a client in the waiting queue
-    private void insertClient(Client client) {
+    // Inserts an authenticated client in the waiting queue. The client has already acknowledged the queue message
+    public void enqueue(Client client) {
 
+        this.waiting_queue_lock.lock();
         try {
-            this.waiting_queue_lock.lock();
             for (Client c : this.waiting_queue) {
                 if (c.equals(client)) {
                     // If the client is already in the queue, their socket is updated with the new one
                     c.setSocket(client.getSocket());
                     System.out.println("Client " + client.getUsername() + " reconnected. Queue size: " + this.waiting_queue.size());
-                    Server.request(client.getSocket(), "QUEUE", "You are already in the waiting queue with " + client.getRank() + " points.");
-                    Connection.receive(client.getSocket());
-                    this.waiting_queue_lock.unlock();
                     return;
                 }
             }
 
             // If the client is not already in the queue, add them to the end of the queue
             this.waiting_queue.add(client);
-            Server.request(client.getSocket(), "QUEUE", "You entered in waiting queue with ranking  " + client.getRank() + " points.");
-            Connection.receive(client.getSocket());
             System.out.println("Client " + client.getUsername() + " is now in waiting queue. Queue size: " + this.waiting_queue.size());
+        } finally {
+            this.waiting_queue_lock.unlock();
+        }
+
+        if (this.mode == 1) {
+            this.sortClients();
+            this.resetServerTime();
+        }
+        serverStatusGUI();
+    }
 
-        } catch (Exception exception) {
-            System.out.println("Error during insert in waiting queue. Info: " + exception.getMessage());
+    // Message of the QUEUE request sent to a client before it enters the waiting queue
+    private String queueMessage(Client client) {
+        this.waiting_queue_lock.lock();
+        try {
+            for (Client c : this.waiting_queue) {
+                if (c.equals(client))
+                    return "You are already in the waiting queue with " + client.getRank() + " points.";
+            }
+            return "You entered in waiting queue with ranking  " + client.getRank() + " points.";
         } finally {
             this.waiting_queue_lock.unlock();
         }
@@ -302,81 +373,58 @@ public class Server {
         this.waiting_queue_lock.unlock();
     }
 
-    public Client login(SocketChannel clientSocket, String username, String password) throws Exception {
-
-        if (Objects.equals(username, "BACK") || Objects.equals(password, "BACK"))
-            return null;
-
-        String token = this.getToken(username);
-        Client client;
+    // Checks the credentials of a handshake in the CHECKING state against the database: login, register or
+    // reconnect. Does no I/O, and returns the answer of the handshake
+    public List<Handshake.Request> authenticate(Handshake handshake, SocketChannel clientSocket) {
 
+        String username = handshake.getUsername();
         try {
-            this.database_lock.lock();
-            client = this.database.login(username, password, token, clientSocket);
-            this.database.backup();
-            this.database_lock.unlock();
-
-            if (client != null) {
-                Server.request(clientSocket, "AUTH", "token-" + username + ".txt\n" + token);
-                Connection.receive(clientSocket);
-                return client;
-            } else {
-                Server.request(clientSocket, "NACK", "Wrong username or password");
-                Connection.receive(clientSocket);
+            String token;
+            Client client;
+            String refusal;
+            switch (handshake.getOption()) {
+                case "1" -> {
+                    token = this.getToken(username);
+                    this.database_lock.lock();
+                    try {
+                        client = this.database.login(username, handshake.getSecret(), token, clientSocket);
+                        this.database.backup();
+                    } finally {
+                        this.database_lock.unlock();
+                    }
+                    refusal = "Wrong username or password";
+                }
+                case "2" -> {
+                    token = this.getToken(username);
+                    this.database_lock.lock();
+                    try {
+                        client = this.database.register(username, handshake.getSecret(), token, clientSocket);
+                        this.database.backup();
+                    } finally {
+                        this.database_lock.unlock();
+                    }
+                    refusal = "Username already in use";
+                }
+                default -> {
+                    token = handshake.getSecret();
+                    this.database_lock.lock();
+                    try {
+                        client = this.database.reconnect(token, clientSocket);
+                        this.database.backup();
+                    } finally {
+                        this.database_lock.unlock();
+                    }
+                    refusal = "Invalid session token";
+                }
             }
 
-        } catch (Exception e) {
-            Server.request(clientSocket, "NACK", e.getMessage());
-            Connection.receive(clientSocket);
-        }
-        return null;
-    }
-
-    public Client register(SocketChannel clientSocket, String username, String password) throws Exception {
-
-        if (Objects.equals(username, "BACK") || Objects.equals(password, "BACK"))
-            return null;
-
-        String token = this.getToken(username);
-        Client client;
-
-        try {
-            this.database_lock.lock();
-            client = this.database.register(username, password, token, clientSocket);
-            this.database.backup();
-            this.database_lock.unlock();
-
-            if (client != null) {
-                Server.request(clientSocket, "AUTH", "token-" + username + ".txt\n" + token);
-                Connection.receive(clientSocket);
-                return client;
-            } else {
-                Server.request(clientSocket, "NACK", "Username already in use");
-                Connection.receive(clientSocket);
-            }
+            if (client == null)
+                return handshake.refused(refusal);
+            return handshake.authenticated(client, token, this.queueMessage(client));
 
         } catch (Exception e) {
-            Server.request(clientSocket, "NACK", e.getMessage());
-            Connection.receive(clientSocket);
+            return handshake.refused(e.getMessage());
         }
-        return null;
-    }
-
-    public Client reconnect(SocketChannel clientSocket, String token) throws Exception {
-
-        this.database_lock.lock();
-        Client client = this.database.reconnect(token, clientSocket);
-        this.database.backup();
-        this.database_lock.unlock();
-
-        if (client != null) {
-            Server.request(clientSocket, "AUTH", "token-" + client.getUsername() + ".txt\n" + token);
-            Connection.receive(clientSocket);
-        } else {
-            Server.request(clientSocket, "NACK","Invalid session token");
-            Connection.receive(clientSocket);
-        }
-        return client;
     }
 
     // FIN + Error Message > receives ACK for client acknowledgement
@@ -392,89 +440,52 @@ public class Server {
         Connection.send(socket, requestType + "\n" + message);
     }
 
-    // Deal with new connection
+    // Deal with new connection: runs its handshake with blocking I/O, on the calling (virtual) thread.
+    // The reads wait at most until the deadline of the handshake, and the thread itself ends the handshake of a
+    // client that took too long, so no other thread writes to or closes the socket
     public void handleClient(SocketChannel clientSocket) throws Exception {
 
-        String input;
-        Client client = null;
-        long startTime = System.currentTimeMillis();
-
-        do {
-
-            // Check if timeout has been reached
-            if (System.currentTimeMillis() - startTime >= this.TIMEOUT) {
-                System.out.println("Connection timeout");
-                Server.request(clientSocket, "FIN", "Connection terminated");
-                return;
-            }
-
-            // Login, register, reconnect and quit choosing options
-            Server.request(clientSocket, "OPT", "1 - Login\n2 - Register\n3 - Reconnect\n4 - Quit");
-            input = Connection.receive(clientSocket).toUpperCase();
-
-            // Quit option -> close connection
-            if (input.equals("4")) {
-                Server.request(clientSocket, "FIN", "Connection terminated");
-                clientSocket.close();
-                return;
-            }
-
-            // Unknown option. Refuse option and try again.
-            if (!(input.equals("1") || input.equals("2") || input.equals("3"))) {
-                Server.request(clientSocket, "NACK", "Option refused");
-                Connection.receive(clientSocket);
-                continue;
-            }
+        Handshake handshake = new Handshake(this.TIMEOUT);
+        List<Handshake.Request> requests = handshake.start();
+        while (true) {
+            for (Handshake.Request request : requests)
+                Server.request(clientSocket, request.type(), request.message());
 
-            // Authentication protocol
-            String username, password, token;
-            switch (input) {
-                case "1" -> {
-                    Server.request(clientSocket, "USR", "Username?");
-                    username = Connection.receive(clientSocket);
-                    System.out.println(username);
-                    if (username.equals("BACK")) continue;
-                    Server.request(clientSocket, "PSW", "Password?");
-                    password = Connection.receive(clientSocket);
-                    client = this.login(clientSocket, username, password);
-                }
-                case "2" -> {
-                    Server.request(clientSocket, "USR", "Username?");
-                    username = Connection.receive(clientSocket);
-                    if (username.equals("BACK")) continue;
-                    Server.request(clientSocket, "PSW", "Password?");
-                    password = Connection.receive(clientSocket);
-                    client = this.register(clientSocket, username, password);
-                }
-                case "3" -> {
-                    Server.request(clientSocket, "TKN", "Token?");
-                    token = Connection.receive(clientSocket);
-                    System.out.println("TOKEN: " + token);
-                    if (token.equals("BACK")) continue;
-                    client = this.reconnect(clientSocket, token);
-                }
-                default -> {
-                    Server.request(clientSocket, "FIN", "Connection terminated");
+            switch (handshake.getState()) {
+                case CLOSED -> {
                     clientSocket.close();
                     return;
                 }
-            }
-
-            // Deal with waiting queue
-            if (client != null) {
-                this.insertClient(client);
-                if (this.mode == 1) {
-                    this.sortClients();
-                    this.resetServerTime();
+                case DONE -> {
+                    clientSocket.socket().setSoTimeout(0);
+                    this.enqueue(handshake.getClient());
+                    return;
+                }
+                case CHECKING -> requests = this.threadPoolCredentials.submit(() -> this.authenticate(handshake, clientSocket)).get();
+                default -> {
+                    try {
+                        requests = handshake.receive(Server.receive(clientSocket, handshake.remaining()));
+                    } catch (SocketTimeoutException exception) {
+                        System.out.println("Connection timeout");
+                        requests = handshake.timeout();
+                    }
                 }
             }
+        }
+    }
 
-        } while (client == null);
-        serverStatusGUI();
+    // Blocking read of one message, as Connection.receive, that fails with SocketTimeoutException after timeout
+    // milliseconds (0 waits forever). Goes through the socket adaptor, whose reads honour SO_TIMEOUT
+    private static String receive(SocketChannel socket, long timeout) throws IOException {
+        socket.socket().setSoTimeout((int) Math.min(Integer.MAX_VALUE, timeout));
+        byte[] buffer = new byte[1024];
+        int bytesRead = socket.socket().getInputStream().read(buffer);
+        if (bytesRead < 0) throw new EOFException("Connection closed by client");
+        return new String(buffer, 0, bytesRead);
     }
 
     public void serverStatusGUI() {
-        int total_games = ((ThreadPoolExecutor) threadPoolGame).getActiveCount();
+        int total_games = this.maxGames - this.gameSlots.availablePermits();
         this.waiting_queue_lock.lock();
         String[] waiting_queue = new String[this.waiting_queue.size()];
         for (int i = 0; i < this.waiting_queue.size() && i < 5; i++) {
@@ -492,7 +503,7 @@ public class Server {
     public static void main(String[] args) {
 
         // Check if there are enough arguments
-        if (args.length != 3) {
+        if (args.length < 3 || args.length > 5) {
             Server.printUsage();
             return;
         }
@@ -501,14 +512,16 @@ public class Server {
         int port = Integer.parseInt(args[0]);
         int mode = Integer.parseInt(args[1]);
         String filename = args[2];
-        if (mode != 0 && mode != 1) {
+        String threads = args.length > 3 ? args[3] : "platform";
+        int maxGames = args.length > 4 ? Integer.parseInt(args[4]) : MAX_CONCURRENT_GAMES;
+        if ((mode != 0 && mode != 1) || !(threads.equals("platform") || threads.equals("virtual")) || maxGames < 1) {
             Server.printUsage();
             return;
         }
 
         // Start the connection
         try {
-            Server server = new Server(port, mode, filename);
+            Server server = new Server(port, mode, filename, threads.equals("virtual"), maxGames);
             server.start();
             server.run();
         } catch (IOException | ParseException exception) {